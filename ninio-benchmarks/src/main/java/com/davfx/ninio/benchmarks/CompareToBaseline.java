@@ -0,0 +1,107 @@
+package com.davfx.ninio.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares a JMH JSON result ({@code -rf json}) to the checked-in baseline and exits with 1 if any benchmark regressed by more than {@code -Dthreshold} (default 10%),
+ * or has no baseline while others have one (so that an outdated baseline cannot pass).
+ * <p>
+ * Until a baseline is recorded (no {@code baseline.json}, or an empty one), the results are only printed with a warning.
+ * To record or update the baseline, run the benchmarks on the reference machine and copy the result over {@code baseline.json}.
+ */
+public final class CompareToBaseline {
+	private CompareToBaseline() {
+	}
+
+	private static final class Score {
+		public final double value;
+		public final String unit;
+		public final boolean higherIsBetter;
+		public Score(double value, String unit, boolean higherIsBetter) {
+			this.value = value;
+			this.unit = unit;
+			this.higherIsBetter = higherIsBetter;
+		}
+	}
+
+	private static Map<String, Score> load(File file) throws IOException {
+		Map<String, Score> scores = new LinkedHashMap<>();
+		try (Reader r = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)) {
+			JsonArray results = new JsonParser().parse(r).getAsJsonArray();
+			for (JsonElement e : results) {
+				JsonObject o = e.getAsJsonObject();
+				String mode = o.get("mode").getAsString();
+				StringBuilder key = new StringBuilder(o.get("benchmark").getAsString()).append(" [").append(mode).append(']');
+				JsonElement params = o.get("params");
+				if (params != null) {
+					Map<String, String> sorted = new TreeMap<>();
+					for (Map.Entry<String, JsonElement> p : params.getAsJsonObject().entrySet()) {
+						sorted.put(p.getKey(), p.getValue().getAsString());
+					}
+					key.append(' ').append(sorted);
+				}
+				JsonObject metric = o.get("primaryMetric").getAsJsonObject();
+				scores.put(key.toString(), new Score(metric.get("score").getAsDouble(), metric.get("scoreUnit").getAsString(), mode.equals("thrpt")));
+			}
+		}
+		return scores;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: CompareToBaseline <baseline.json> <result.json>");
+			System.exit(2);
+			return;
+		}
+		double threshold = Double.parseDouble(System.getProperty("threshold", "0.1"));
+
+		File baselineFile = new File(args[0]);
+		Map<String, Score> baseline = baselineFile.exists() ? load(baselineFile) : new LinkedHashMap<String, Score>();
+		Map<String, Score> result = load(new File(args[1]));
+		boolean recorded = !baseline.isEmpty();
+
+		int regressions = 0;
+		int missing = 0;
+		for (Map.Entry<String, Score> e : result.entrySet()) {
+			Score s = e.getValue();
+			Score b = baseline.get(e.getKey());
+			if (b == null) {
+				missing++;
+				System.out.println(String.format("NO BASELINE %s: %.3f %s", e.getKey(), s.value, s.unit));
+				continue;
+			}
+			double change = (s.value - b.value) / b.value;
+			boolean regressed = s.higherIsBetter ? (change < -threshold) : (change > threshold);
+			if (regressed) {
+				regressions++;
+			}
+			System.out.println(String.format("%s %s: %.3f -> %.3f %s (%+.1f%%)", regressed ? "SLOWER" : "  OK  ", e.getKey(), b.value, s.value, s.unit, change * 100d));
+		}
+
+		if (result.isEmpty()) {
+			System.out.println("No benchmark result");
+			System.exit(1);
+		}
+		if (!recorded) {
+			System.out.println("WARNING: no baseline recorded yet in " + baselineFile + ", copy this result over it on the reference machine");
+			return;
+		}
+		if ((regressions > 0) || (missing > 0)) {
+			System.out.println(regressions + " regression(s), " + missing + " benchmark(s) without baseline");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.davfx.ninio.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.davfx.ninio.core.Limit;
+
+/**
+ * {@link Limit} under contention: each thread takes a slot, runs a task in it and releases it, with fewer slots than threads.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LimitBenchmark {
+	@Param("2")
+	public int max;
+
+	private final Limit limit = new Limit();
+
+	private void acquireRunRelease() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		Limit.Manager m = limit.inc(max);
+		m.add(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		done.await();
+		m.cancel();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void uncontended() throws InterruptedException {
+		acquireRunRelease();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void contended() throws InterruptedException {
+		acquireRunRelease();
+	}
+}
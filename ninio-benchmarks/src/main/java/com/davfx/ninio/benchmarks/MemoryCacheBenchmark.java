@@ -0,0 +1,80 @@
+package com.davfx.ninio.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.davfx.ninio.util.MemoryCache;
+
+/**
+ * {@link MemoryCache} get/put on a full cache, with keys drawn from twice the cache limit (about half the gets miss, half the puts evict).
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryCacheBenchmark {
+	private static final int KEYS_MASK = (1 << 16) - 1;
+
+	@Param("10000")
+	public int limit;
+
+	private MemoryCache<Integer, Integer> cache;
+	private Integer[] keys;
+	private int index = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		cache = MemoryCache.<Integer, Integer> builder().expireAfterAccess(60d).limitedTo(limit).build();
+
+		Random random = new Random(0L);
+		keys = new Integer[KEYS_MASK + 1];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextInt(limit * 2);
+		}
+		for (int i = 0; i < limit; i++) {
+			cache.put(i, i);
+		}
+	}
+
+	private Integer nextKey() {
+		Integer k = keys[index & KEYS_MASK];
+		index++;
+		return k;
+	}
+
+	@Benchmark
+	public Integer get() {
+		return cache.get(nextKey());
+	}
+
+	@Benchmark
+	public void put() {
+		Integer k = nextKey();
+		cache.put(k, k);
+	}
+
+	@Benchmark
+	public Integer getOrPut() {
+		Integer k = nextKey();
+		Integer v = cache.get(k);
+		if (v == null) {
+			cache.put(k, k);
+		}
+		return v;
+	}
+}
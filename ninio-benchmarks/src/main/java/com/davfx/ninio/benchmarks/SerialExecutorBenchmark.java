@@ -0,0 +1,75 @@
+package com.davfx.ninio.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.davfx.ninio.util.SerialExecutor;
+
+/**
+ * Hand-off to a {@link SerialExecutor}: latency of a single task, and throughput of bursts of {@value #BURST} tasks.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class SerialExecutorBenchmark {
+	private static final int BURST = 1000;
+
+	private static final Runnable NOP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	private final SerialExecutor executor = new SerialExecutor(SerialExecutorBenchmark.class);
+
+	private void executeAndWait(int count) throws InterruptedException {
+		for (int i = 1; i < count; i++) {
+			executor.execute(NOP);
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		done.await();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void handoff() throws InterruptedException {
+		executeAndWait(1);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@OperationsPerInvocation(BURST)
+	public void burst() throws InterruptedException {
+		executeAndWait(BURST);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@OperationsPerInvocation(BURST)
+	@Threads(4)
+	public void burstContended() throws InterruptedException {
+		executeAndWait(BURST);
+	}
+}
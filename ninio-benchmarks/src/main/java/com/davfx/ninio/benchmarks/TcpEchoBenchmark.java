@@ -0,0 +1,167 @@
+package com.davfx.ninio.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connected;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Listener;
+import com.davfx.ninio.core.Listening;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.TcpSocket;
+import com.davfx.ninio.core.TcpSocketServer;
+import com.davfx.ninio.core.WaitConnectedConnection;
+import com.davfx.ninio.core.WaitConnectedListening;
+import com.davfx.ninio.util.Wait;
+
+/**
+ * TCP echo over loopback, through {@link TcpSocketServer} and {@link TcpSocket}.
+ * <p>
+ * {@link #roundTrip()} measures the latency of a single message, {@link #stream()} the throughput of {@value #STREAM} pipelined messages.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class TcpEchoBenchmark {
+	private static final int STREAM = 100;
+
+	@Param({ "64", "4096" })
+	public int size;
+
+	@Param("19101")
+	public int port;
+
+	private Ninio ninio;
+	private Listener server;
+	private Connecter client;
+	private ByteBuffer message;
+
+	private final Object lock = new Object();
+	private long received = 0L; // Guarded by lock
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ninio = Ninio.create();
+
+		Wait serverWait = new Wait();
+		server = ninio.create(TcpSocketServer.builder().bind(new Address(Address.ANY, port)));
+		server.listen(
+			new WaitConnectedListening(serverWait,
+			new Listening() {
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+
+				@Override
+				public Connection connecting(final Connected connecting) {
+					return new Connection() {
+						@Override
+						public void received(Address address, ByteBuffer buffer) {
+							connecting.send(null, buffer, new Nop());
+						}
+
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+					};
+				}
+			}));
+		serverWait.waitFor();
+
+		Wait clientWait = new Wait();
+		client = ninio.create(TcpSocket.builder().to(new Address(Address.LOCALHOST, port)));
+		client.connect(
+			new WaitConnectedConnection(clientWait,
+			new Connection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					synchronized (lock) {
+						received += buffer.remaining();
+						lock.notifyAll();
+					}
+				}
+
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+			}));
+		clientWait.waitFor();
+
+		message = ByteBuffer.allocate(size);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.close();
+		server.close();
+		ninio.close();
+	}
+
+	private void sendAndWait(int count) throws InterruptedException {
+		long expected;
+		synchronized (lock) {
+			expected = received + (((long) size) * count);
+		}
+		for (int i = 0; i < count; i++) {
+			client.send(null, message.duplicate(), new Nop());
+		}
+		synchronized (lock) {
+			while (received < expected) {
+				lock.wait();
+			}
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void roundTrip() throws InterruptedException {
+		sendAndWait(1);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(STREAM)
+	public void stream() throws InterruptedException {
+		sendAndWait(STREAM);
+	}
+}
@@ -0,0 +1,73 @@
+package com.davfx.ninio.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.davfx.ninio.core.Timeout;
+
+/**
+ * {@link Timeout} churn: most timeouts are set, maybe reset, and cancelled long before they fail.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimeoutBenchmark {
+	private static final double TIMEOUT = 60d;
+
+	private static final Runnable FAILING = new Runnable() {
+		@Override
+		public void run() {
+			throw new IllegalStateException("Should have been cancelled");
+		}
+	};
+
+	private Timeout timeout;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		timeout = new Timeout();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		timeout.close();
+	}
+
+	@Benchmark
+	public void setCancel() {
+		Timeout.Manager m = timeout.set(TIMEOUT);
+		m.run(FAILING);
+		m.cancel();
+	}
+
+	@Benchmark
+	public void setResetCancel() {
+		Timeout.Manager m = timeout.set(TIMEOUT);
+		m.run(FAILING);
+		m.reset();
+		m.reset();
+		m.cancel();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void setCancelContended() {
+		setCancel();
+	}
+}
@@ -0,0 +1,139 @@
+package com.davfx.ninio.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.UdpSocket;
+import com.davfx.ninio.core.WaitConnectedConnection;
+import com.davfx.ninio.util.Wait;
+
+/**
+ * Datagrams per second through {@link UdpSocket}, both sides over loopback.
+ * <p>
+ * Each invocation sends {@value #BURST} datagrams and waits for the receiver to get them. Datagrams may be lost,
+ * the wait then gives up after {@value #LOST_TIMEOUT} ms and the losses are logged at tear down.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class UdpBenchmark {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UdpBenchmark.class);
+
+	private static final int BURST = 100;
+	private static final long LOST_TIMEOUT = 100L;
+
+	@Param({ "64", "1400" })
+	public int size;
+
+	@Param("19102")
+	public int port;
+
+	private Ninio ninio;
+	private Connecter server;
+	private Connecter client;
+	private Address serverAddress;
+	private ByteBuffer message;
+
+	private final Object lock = new Object();
+	private long received = 0L; // Guarded by lock
+	private long sent = 0L;
+	private long lost = 0L;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ninio = Ninio.create();
+
+		Wait serverWait = new Wait();
+		server = ninio.create(UdpSocket.builder().bind(new Address(Address.ANY, port)));
+		server.connect(
+			new WaitConnectedConnection(serverWait,
+			new Connection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					synchronized (lock) {
+						received++;
+						lock.notifyAll();
+					}
+				}
+
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+			}));
+		serverWait.waitFor();
+
+		Wait clientWait = new Wait();
+		client = ninio.create(UdpSocket.builder());
+		client.connect(new WaitConnectedConnection(clientWait, new Nop()));
+		clientWait.waitFor();
+
+		serverAddress = new Address(Address.LOCALHOST, port);
+		message = ByteBuffer.allocate(size);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		LOGGER.info("{} datagrams lost out of {}", lost, sent);
+		client.close();
+		server.close();
+		ninio.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(BURST)
+	public void burst() throws InterruptedException {
+		long expected;
+		synchronized (lock) {
+			expected = received + BURST;
+		}
+		for (int i = 0; i < BURST; i++) {
+			client.send(serverAddress, message.duplicate(), new Nop());
+		}
+		sent += BURST;
+
+		long end = System.currentTimeMillis() + LOST_TIMEOUT;
+		synchronized (lock) {
+			while (received < expected) {
+				long now = System.currentTimeMillis();
+				if (now >= end) {
+					lost += expected - received;
+					received = expected;
+					break;
+				}
+				lock.wait(end - now);
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.davfx.ninio.core;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+/**
+ * Sizes the read buffers of each TCP connection from its previous reads: the size doubles when a read fills the buffer,
+ * and halves after {@code buffer.adaptive.shrink} consecutive reads that would have fit in the smaller size.
+ * <p>
+ * TCP sockets built {@link TcpSocket.Builder#with(ByteBufferAllocator) with} this allocator get their own {@link Handle}.
+ * Anywhere else, it allocates buffers of the initial size.
+ * <p>
+ * The sizes chosen by all the handles are counted, see {@link #allocations()}. They are also recorded, for all the allocators,
+ * in the global {@code buffer.adaptive.size} histogram (in bytes) and the {@code buffer.adaptive.grows} and {@code buffer.adaptive.shrinks} counters.
+ */
+public final class AdaptiveByteBufferAllocator implements ByteBufferAllocator {
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(AdaptiveByteBufferAllocator.class.getPackage().getName());
+	private static final int MIN_SIZE = CONFIG.getBytes("buffer.adaptive.min").intValue();
+	private static final int INITIAL_SIZE = CONFIG.getBytes("buffer.adaptive.initial").intValue();
+	private static final int MAX_SIZE = CONFIG.getBytes("buffer.adaptive.max").intValue();
+	private static final int SHRINK = CONFIG.getInt("buffer.adaptive.shrink");
+
+	private static final Histogram SIZES = Metrics.global().histogram("buffer.adaptive.size");
+	private static final Counter GROWS = Metrics.global().counter("buffer.adaptive.grows");
+	private static final Counter SHRINKS = Metrics.global().counter("buffer.adaptive.shrinks");
+
+	/**
+	 * Read buffer allocator of a single connection, only used from its queue.
+	 */
+	public final class Handle implements ByteBufferAllocator {
+		private int index = initialIndex;
+		private int shortReads = 0;
+
+		private Handle() {
+		}
+
+		public int size() {
+			return sizes[index];
+		}
+
+		public boolean pooled() {
+			return AdaptiveByteBufferAllocator.this.pooled();
+		}
+
+		@Override
+		public ByteBuffer allocate() {
+			allocations.incrementAndGet(index);
+			SIZES.record(sizes[index]);
+			return AdaptiveByteBufferAllocator.this.allocate(sizes[index]);
+		}
+
+		/**
+		 * Called after each non-empty read into a buffer of the given size.
+		 */
+		public void read(int bytes, int size) {
+			if (bytes >= size) {
+				shortReads = 0;
+				if ((index < (sizes.length - 1)) && (size >= sizes[index])) {
+					index++;
+					grows.incrementAndGet();
+					GROWS.inc();
+				}
+				return;
+			}
+			if ((index > 0) && (bytes <= sizes[index - 1])) {
+				shortReads++;
+				if (shortReads >= SHRINK) {
+					shortReads = 0;
+					index--;
+					shrinks.incrementAndGet();
+					SHRINKS.inc();
+				}
+				return;
+			}
+			shortReads = 0;
+		}
+	}
+
+	private final PooledByteBufferAllocator pool;
+	private final int[] sizes;
+	private final int initialIndex;
+
+	private final AtomicLongArray allocations;
+	private final AtomicLong grows = new AtomicLong(0L);
+	private final AtomicLong shrinks = new AtomicLong(0L);
+
+	public AdaptiveByteBufferAllocator() {
+		this(null);
+	}
+	/**
+	 * @param pool Buffers are taken from this pool instead of being allocated on the heap, see {@link PooledByteBufferAllocator} for their ownership.
+	 * The sizes are then capped at {@code buffer.pool.max}, so that they are all pooled
+	 */
+	public AdaptiveByteBufferAllocator(PooledByteBufferAllocator pool) {
+		this.pool = pool;
+
+		int max = (pool == null) ? MAX_SIZE : Math.max(MIN_SIZE, Math.min(MAX_SIZE, PooledByteBufferAllocator.MAX_SIZE));
+		int n = 0;
+		for (int s = MIN_SIZE; s <= max; s *= 2) {
+			n++;
+		}
+		sizes = new int[n];
+		int s = MIN_SIZE;
+		int initial = 0;
+		for (int i = 0; i < n; i++) {
+			sizes[i] = s;
+			if (s <= INITIAL_SIZE) {
+				initial = i;
+			}
+			s *= 2;
+		}
+		initialIndex = initial;
+		allocations = new AtomicLongArray(n);
+	}
+
+	public boolean pooled() {
+		return pool != null;
+	}
+
+	public Handle handle() {
+		return new Handle();
+	}
+
+	@Override
+	public ByteBuffer allocate() {
+		allocations.incrementAndGet(initialIndex);
+		SIZES.record(sizes[initialIndex]);
+		return allocate(sizes[initialIndex]);
+	}
+
+	private ByteBuffer allocate(int size) {
+		if (pool != null) {
+			return pool.allocate(size);
+		}
+		return ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Number of buffers allocated, by size.
+	 */
+	public Map<Integer, Long> allocations() {
+		Map<Integer, Long> m = new LinkedHashMap<>();
+		for (int i = 0; i < sizes.length; i++) {
+			m.put(sizes[i], allocations.get(i));
+		}
+		return m;
+	}
+
+	public long grows() {
+		return grows.get();
+	}
+
+	public long shrinks() {
+		return shrinks.get();
+	}
+}
@@ -5,6 +5,10 @@ import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Objects;
 
+/**
+ * Addresses are used as map keys on hot paths, their hash code is cached: {@link #ip} must not be modified.
+ * Instances may also be shared, e.g. the source addresses of received datagrams are cached and given to every receiver.
+ */
 public final class Address {
 	public static final byte[] LOCALHOST = new byte[] { 127, 0, 0, 1 };
 	public static final byte[] ANY = new byte[] { 0, 0, 0, 0 };
@@ -13,6 +17,7 @@ public final class Address {
 	
 	public final byte[] ip;
 	public final int port;
+	private int hash = 0; // Lazily computed, 0 if not yet
 
 	public Address(byte[] ip, int port) {
 		this.ip = ip;
@@ -49,7 +54,12 @@ public final class Address {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(Arrays.hashCode(ip), port);
+		int h = hash;
+		if (h == 0) {
+			h = Objects.hash(Arrays.hashCode(ip), port);
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -61,6 +71,9 @@ public final class Address {
 			return false;
 		}
 		Address a = (Address) o;
+		if ((a.hash != 0) && (hash != 0) && (a.hash != hash)) {
+			return false;
+		}
 		return Arrays.equals(a.ip, ip) && (a.port == port);
 	}
 }
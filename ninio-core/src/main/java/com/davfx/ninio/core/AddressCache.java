@@ -0,0 +1,61 @@
+package com.davfx.ninio.core;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Direct-mapped cache of the source addresses of received datagrams, only used from the socket queue.
+ * <p>
+ * IPv4 addresses are packed with the port in a long, so that an address already seen is returned as is, instead of a new {@link Address}.
+ * A colliding address simply replaces the cached one.
+ * <p>
+ * The same {@link Address} instance is given to all the receivers of the datagrams from a source: they must not modify its {@link Address#ip} array.
+ */
+final class AddressCache {
+	private final int mask;
+	private final long[] keys;
+	private final Address[] addresses;
+
+	/**
+	 * @param size Rounded up to a power of two, 0 to disable the cache
+	 */
+	public AddressCache(int size) {
+		if (size <= 0) {
+			mask = -1;
+			keys = null;
+			addresses = null;
+			return;
+		}
+		int s = 1;
+		while (s < size) {
+			s *= 2;
+		}
+		mask = s - 1;
+		keys = new long[s];
+		addresses = new Address[s];
+	}
+
+	public Address get(InetSocketAddress from) {
+		InetAddress a = from.getAddress();
+		int port = from.getPort();
+		if ((keys == null) || !(a instanceof Inet4Address)) {
+			return new Address(a.getAddress(), port);
+		}
+
+		byte[] ip = a.getAddress();
+		long key = ((((ip[0] & 0xFFL) << 24) | ((ip[1] & 0xFFL) << 16) | ((ip[2] & 0xFFL) << 8) | (ip[3] & 0xFFL)) << 16) | (port & 0xFFFFL);
+		long h = key * 0x9E3779B97F4A7C15L;
+		int i = (int) (h >>> 32) & mask;
+
+		Address cached = addresses[i];
+		if ((cached != null) && (keys[i] == key)) {
+			return cached;
+		}
+
+		Address address = new Address(ip, port);
+		keys[i] = key;
+		addresses[i] = address;
+		return address;
+	}
+}
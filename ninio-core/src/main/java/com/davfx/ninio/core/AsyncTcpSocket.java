@@ -187,8 +187,9 @@ public final class AsyncTcpSocket {
 		c.connect(new Connection() {
 			
 			@Override
-			public void received(Address address, ByteBuffer buffer) {
-				LOGGER.debug("Packet received ({} bytes)", buffer.remaining());
+			public void received(Address address, ByteBuffer receivedBuffer) {
+				LOGGER.debug("Packet received ({} bytes)", receivedBuffer.remaining());
+				ByteBuffer buffer = PooledByteBufferAllocator.copyIfPooled(receivedBuffer); // Kept until read
 				synchronized (lock) {
 					if (readFutures.isEmpty()) {
 						LOGGER.debug("No future, keeping packet");
@@ -0,0 +1,13 @@
+package com.davfx.ninio.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Connection receiving all the datagrams read on a single readiness event at once (see {@link UdpSocket.Builder#batch(int)}).
+ * <p>
+ * Connecters not supporting batches keep calling {@link #received(Address, ByteBuffer)} for each packet.
+ * Arrays are not reused, they can be handed to another thread.
+ */
+public interface BatchReceiver extends Connection {
+	void received(Address[] addresses, ByteBuffer[] buffers);
+}
@@ -0,0 +1,160 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Idle, read and write timeouts of a TCP connection, all checked by a single timer of the loop owning the connection.
+ * <p>
+ * Reads and writes only record the time: the timer is rescheduled lazily, when it fires, at the earliest deadline.
+ * While reading is suspended, the idle and read timeouts are not checked. All the methods must be called from the loop of the connection.
+ */
+final class ConnectionTimeouts {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionTimeouts.class);
+
+	public static interface Expired {
+		void expired(IOException reason);
+	}
+
+	private final Queue queue;
+	private final TcpWriteQueue toWriteQueue;
+	private final Expired expired;
+
+	// In nanoseconds, 0 = never
+	private final long idle;
+	private final long read;
+	private final long write;
+	private final long period; // Shortest timeout
+
+	private long lastRead;
+	private long lastWrite;
+	private long writeSince; // Since when the pending writes have not progressed
+	private boolean readSuspended = false;
+
+	private Queue.Scheduled timer = null;
+	private final Runnable check = new Runnable() {
+		@Override
+		public void run() {
+			timer = null;
+			check();
+		}
+	};
+
+	public ConnectionTimeouts(Queue queue, double idle, double read, double write, TcpWriteQueue toWriteQueue, Expired expired) {
+		this.queue = queue;
+		this.toWriteQueue = toWriteQueue;
+		this.expired = expired;
+		this.idle = nanos(idle);
+		this.read = nanos(read);
+		this.write = nanos(write);
+		long p = Long.MAX_VALUE;
+		for (long t : new long[] { this.idle, this.read, this.write }) {
+			if (t > 0L) {
+				p = Math.min(p, t);
+			}
+		}
+		period = (p == Long.MAX_VALUE) ? 0L : p;
+	}
+
+	private static long nanos(double seconds) {
+		return (seconds > 0d) ? Math.max(1L, (long) (seconds * 1000000000d)) : 0L;
+	}
+
+	public void start() {
+		if (period == 0L) {
+			return;
+		}
+		long now = System.nanoTime();
+		lastRead = now;
+		lastWrite = now;
+		writeSince = now;
+		schedule(period);
+	}
+
+	public void read() {
+		if (period == 0L) {
+			return;
+		}
+		lastRead = System.nanoTime();
+	}
+
+	public void wrote() {
+		if (period == 0L) {
+			return;
+		}
+		long now = System.nanoTime();
+		lastWrite = now;
+		writeSince = now;
+	}
+
+	// To be called before adding to the write queue
+	public void writing() {
+		if (write == 0L) {
+			return;
+		}
+		if (toWriteQueue.isEmpty()) {
+			writeSince = System.nanoTime();
+		}
+	}
+
+	public void suspended(boolean readSuspended) {
+		this.readSuspended = readSuspended;
+		if (!readSuspended) {
+			read();
+		}
+	}
+
+	public void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	private void schedule(long delay) {
+		timer = queue.schedule(delay / 1000000000d, check);
+	}
+
+	private void check() {
+		long now = System.nanoTime();
+		long next = period;
+
+		if (!readSuspended) {
+			if (idle > 0L) {
+				long lastActivity = ((lastRead - lastWrite) > 0L) ? lastRead : lastWrite;
+				long remaining = idle - (now - lastActivity);
+				if (remaining <= 0L) {
+					expire("Idle timeout");
+					return;
+				}
+				next = Math.min(next, remaining);
+			}
+			if (read > 0L) {
+				long remaining = read - (now - lastRead);
+				if (remaining <= 0L) {
+					expire("Read timeout");
+					return;
+				}
+				next = Math.min(next, remaining);
+			}
+		}
+
+		if ((write > 0L) && !toWriteQueue.isEmpty()) {
+			long remaining = write - (now - writeSince);
+			if (remaining <= 0L) {
+				expire("Write timeout");
+				return;
+			}
+			next = Math.min(next, remaining);
+		}
+
+		schedule(next);
+	}
+
+	private void expire(String reason) {
+		LOGGER.debug("Connection closed: {}", reason);
+		expired.expired(new IOException(reason));
+	}
+}
@@ -0,0 +1,47 @@
+package com.davfx.ninio.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped over several cache lines, so that concurrent increments from different threads (selector loops, executors) do not contend.
+ * Reading sums all the stripes.
+ */
+public final class Counter {
+	private static final int PADDING = 8; // longs per 64-byte cache line
+	private static final int STRIPES;
+	static {
+		int s = 1;
+		while (s < (Runtime.getRuntime().availableProcessors() * 2)) {
+			s *= 2;
+		}
+		STRIPES = s;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	public Counter() {
+	}
+
+	private static int stripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		return (h & (STRIPES - 1)) * PADDING;
+	}
+
+	public void inc() {
+		cells.incrementAndGet(stripe());
+	}
+
+	public void add(long value) {
+		cells.addAndGet(stripe(), value);
+	}
+
+	public long get() {
+		long s = 0L;
+		for (int i = 0; i < STRIPES; i++) {
+			s += cells.get(i * PADDING);
+		}
+		return s;
+	}
+}
@@ -0,0 +1,14 @@
+package com.davfx.ninio.core;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by the {@link Connected} sockets that can send a region of a file, in order with the buffers sent before and after it.
+ * Plain TCP sockets transfer it from the file to the socket with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * without copying it in memory; TLS sockets read it through a pooled buffer.
+ * <p>
+ * The file channel is neither modified nor closed, the callback is called once the whole region has been written. Can be called from any thread.
+ */
+public interface FileSender {
+	void sendFile(FileChannel file, long position, long count, SendCallback callback);
+}
@@ -0,0 +1,8 @@
+package com.davfx.ninio.core;
+
+/**
+ * Value read on demand, from any thread, when metrics are polled.
+ */
+public interface Gauge {
+	long get();
+}
@@ -0,0 +1,76 @@
+package com.davfx.ninio.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values in power-of-two buckets: percentiles are approximated by the upper bound of their bucket (at most twice the actual value).
+ */
+public final class Histogram {
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final Counter count = new Counter();
+	private final Counter sum = new Counter();
+	private final AtomicLong max = new AtomicLong(0L);
+
+	public Histogram() {
+	}
+
+	public void record(long value) {
+		if (value < 0L) {
+			value = 0L;
+		}
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value)); // Bucket i holds [2^(i-1), 2^i - 1], 0 in bucket 0
+		count.inc();
+		sum.add(value);
+		while (true) {
+			long m = max.get();
+			if ((m >= value) || max.compareAndSet(m, value)) {
+				break;
+			}
+		}
+	}
+
+	public long count() {
+		return count.get();
+	}
+
+	public long sum() {
+		return sum.get();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long c = count();
+		return (c == 0L) ? 0d : (((double) sum()) / c);
+	}
+
+	/**
+	 * @param p Between 0 and 1
+	 */
+	public long percentile(double p) {
+		long[] b = new long[BUCKETS];
+		long total = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			b[i] = buckets.get(i);
+			total += b[i];
+		}
+		if (total == 0L) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(p * total);
+		long n = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += b[i];
+			if ((n >= rank) && (b[i] > 0L)) {
+				long upper = (i >= 63) ? Long.MAX_VALUE : ((1L << i) - 1L);
+				return Math.min(upper, max());
+			}
+		}
+		return max();
+	}
+}
@@ -1,24 +1,48 @@
 package com.davfx.ninio.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
 import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.MappedLogCache;
 import com.davfx.ninio.util.MemoryCache;
+import com.davfx.ninio.util.OffHeapMemoryCache;
+import com.davfx.ninio.util.SerialExecutor;
+import com.davfx.ninio.util.Wait;
+import com.typesafe.config.Config;
 
 public final class InMemoryCache {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryCache.class);
 
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(InMemoryCache.class.getPackage().getName());
+	private static final int LOCKS = Integer.highestOneBit(Math.max(1, CONFIG.getInt("cache.locks") * 2 - 1));
+
 	public static interface Builder<T> extends NinioBuilder<Connecter> {
-		// Builder<T> database(File database);
+		/**
+		 * Also keeps the responses in a {@link MappedLogCache} file, so that they are served while fresh requests are sent after a restart.
+		 * The file is written from a {@link SerialExecutor}, never from the thread receiving the responses.
+		 */
+		Builder<T> database(File database);
 		Builder<T> dataExpiration(double dataExpiration);
 		Builder<T> requestExpiration(double requestExpiration);
+		/**
+		 * During the given time after its expiration, a response is still served, while a single request is sent to refresh it.
+		 */
+		Builder<T> staleWhileRevalidate(double staleWhileRevalidate);
+		/**
+		 * Keeps the responses in an {@link OffHeapMemoryCache} of the given capacity (in bytes) instead of the heap.
+		 */
+		Builder<T> offHeap(long capacity);
 		Builder<T> using(Interpreter<T> interpreter);
 		Builder<T> with(NinioBuilder<Connecter> builder);
 	}
@@ -29,8 +53,10 @@ public final class InMemoryCache {
 			
 			private double dataExpiration = 0d;
 			private double requestExpiration = 0d;
+			private double staleWhileRevalidate = 0d;
+			private long offHeapCapacity = 0L;
 			private Interpreter<T> interpreter = null;
-			// private File database = null;
+			private File database = null;
 			
 			@Override
 			public Builder<T> using(Interpreter<T> interpreter) {
@@ -44,13 +70,11 @@ public final class InMemoryCache {
 				return this;
 			}
 		
-			/*
 			@Override
 			public Builder<T> database(File database) {
 				this.database = database;
 				return this;
 			}
-			*/
 			@Override
 			public Builder<T> dataExpiration(double dataExpiration) {
 				this.dataExpiration = dataExpiration;
@@ -61,6 +85,16 @@ public final class InMemoryCache {
 				this.requestExpiration = requestExpiration;
 				return this;
 			}
+			@Override
+			public Builder<T> staleWhileRevalidate(double staleWhileRevalidate) {
+				this.staleWhileRevalidate = staleWhileRevalidate;
+				return this;
+			}
+			@Override
+			public Builder<T> offHeap(long capacity) {
+				offHeapCapacity = capacity;
+				return this;
+			}
 			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
@@ -71,80 +105,63 @@ public final class InMemoryCache {
 					throw new NullPointerException("interpreter");
 				}
 				
-				return new InnerConnecter<>(/*database, */dataExpiration, requestExpiration, interpreter, builder.create(ninioProvider));
+				return new InnerConnecter<>(database, dataExpiration, requestExpiration, staleWhileRevalidate, offHeapCapacity, interpreter, builder.create(ninioProvider));
 			}
 		};
 	}
 	
 	private static final class InnerConnecter<T> implements Connecter {
-		// private final File database;
 		private final Connecter wrappee;
 		private final Interpreter<T> interpreter;
 		private final double dataExpiration;
 		private final double requestExpiration;
-		// private final java.sql.Connection sqlConnection;
+		private final double staleWhileRevalidate;
+		private final double retention; // Expiration and grace period
 		private final MemoryCache<Address, CacheByAddress<T>> cacheByDestinationAddress;
-		private Connection connectCallback = null;
+		private final OffHeapMemoryCache<String> offHeapData; // Responses by address and key, null to keep them in DataCache
+		private final MappedLogCache database; // Responses by address and key, null if not persisted
+		private final IOException databaseError;
+		private final Executor databaseExecutor = new SerialExecutor(InMemoryCache.class); // Writes to the database
+		private final Object[] locks; // Guard the CacheByAddress of the addresses they are striped with
+		private volatile Connection connectCallback = null;
 
-		public InnerConnecter(/*File database, */double dataExpiration, double requestExpiration, Interpreter<T> interpreter, Connecter wrappee) {
+		public InnerConnecter(File database, double dataExpiration, double requestExpiration, double staleWhileRevalidate, long offHeapCapacity, Interpreter<T> interpreter, Connecter wrappee) {
 			this.dataExpiration = dataExpiration;
 			this.requestExpiration = Math.min(dataExpiration, requestExpiration);
+			this.staleWhileRevalidate = staleWhileRevalidate;
+			retention = (dataExpiration > 0d) ? (dataExpiration + staleWhileRevalidate) : 0d; // Responses that never expire are never stale
 			this.interpreter = interpreter;
 			this.wrappee = wrappee;
 			
-			cacheByDestinationAddress = MemoryCache.<Address, CacheByAddress<T>> builder().expireAfterAccess(dataExpiration).build();
+			cacheByDestinationAddress = MemoryCache.<Address, CacheByAddress<T>> builder().expireAfterAccess(retention).build();
+			offHeapData = (offHeapCapacity > 0L) ? OffHeapMemoryCache.<String> builder().expireAfterWrite(retention).capacity(offHeapCapacity).build() : null;
+			locks = new Object[LOCKS];
+			for (int i = 0; i < locks.length; i++) {
+				locks[i] = new Object();
+			}
 			
-			/*
-			File databaseFile;
-			if (database == null) {
+			MappedLogCache d = null;
+			IOException de = null;
+			if (database != null) {
 				try {
-					databaseFile = File.createTempFile(SqliteCache.class.getName(), null);
-					databaseFile.deleteOnExit();
+					d = MappedLogCache.builder().expireAfterWrite(retention).build(database);
 				} catch (IOException ioe) {
-					LOGGER.error("Database file error", ioe);
-					databaseFile = null;
+					LOGGER.error("Database file error: {}", database, ioe);
+					de = ioe;
 				}
-			} else {
-				databaseFile = database;
 			}
-			databaseFile.delete();
-			this.database = databaseFile;
-
-			java.sql.Connection c;
-			try {
-				c = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getCanonicalPath());
-				try {
-					try (PreparedStatement s = c.prepareStatement("CREATE TABLE `data` (`address` TEXT, `key` TEXT, `packet` BLOB, PRIMARY KEY (`address`, `key`))")) {
-						s.executeUpdate();
-					}
-				} catch (SQLException see) {
-					c.close();
-					throw see;
-				}
-			} catch (SQLException | IOException e) {
-				LOGGER.error("SQL error", e);
-				c = null;
-			}
-			sqlConnection = c;
-			*/
+			this.database = d;
+			databaseError = de;
 		}
 		
 		@Override
 		public void connect(final Connection callback) {
-			/*
-			if (database == null) {
-				callback.failed(new IOException("Database file could not be created"));
+			if (databaseError != null) {
+				callback.failed(new IOException("Database file could not be open", databaseError));
 				return;
 			}
-			if (sqlConnection == null) {
-				callback.failed(new IOException("SQL connection could not be open"));
-				return;
-			}
-			*/
 			
-			synchronized (cacheByDestinationAddress) {
-				connectCallback = callback;
-			}
+			connectCallback = callback;
 
 			wrappee.connect(new Connection() {
 				@Override
@@ -164,9 +181,10 @@ public final class InMemoryCache {
 						}
 					}
 	
+					ByteBuffer response = PooledByteBufferAllocator.copyIfPooled(sourceBuffer); // Kept once received() returns
 					String key;
 					List<T> to;
-					synchronized (cacheByDestinationAddress) {
+					synchronized (lock(address)) {
 						CacheByAddress<T> cache = cacheByDestinationAddress.get(address);
 						if (cache == null) {
 							LOGGER.trace("No cache (address = {})", address);
@@ -193,7 +211,15 @@ public final class InMemoryCache {
 						}
 						subs.subs.clear();
 						
-						subs.data = sourceBuffer.duplicate();
+						if (offHeapData == null) {
+							subs.data = response.duplicate();
+						} else {
+							offHeapData.put(dataKey(address, key), response.duplicate());
+							subs.offHeap = true;
+						}
+						subs.timestamp = DateUtils.now();
+						subs.revalidation = 0d;
+						cache.requestsByKey.put(key, subs); // Expires after the response, not after the request
 					}
 
 					for (T s : to) {
@@ -212,21 +238,17 @@ public final class InMemoryCache {
 
 					LOGGER.trace("New response (address = {}, sub = {}, key = {})", address, sub, key);
 	
-					/*
-					try {
-						byte[] bytes = new byte[sourceBuffer.remaining()];
-						sourceBuffer.get(bytes);
-						try (PreparedStatement s = sqlConnection.prepareStatement("REPLACE INTO `data` (`address`, `key`, `packet`) VALUES (?, ?, ?)")) {
-							int k = 1;
-							s.setString(k++, address.toString());
-							s.setString(k++, key);
-							s.setBytes(k++, bytes);
-							s.executeUpdate();
-						}
-					} catch (SQLException se) {
-						LOGGER.error("SQL error", se);
+					if (database != null) {
+						// Written from another thread, the file may be compacting
+						final String k = dataKey(address, key);
+						final ByteBuffer b = response.duplicate();
+						databaseExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								database.put(k, b);
+							}
+						});
 					}
-					*/
 				}
 				
 				@Override
@@ -236,42 +258,19 @@ public final class InMemoryCache {
 				
 				@Override
 				public void failed(IOException ioe) {
-					/*
-					try {
-						sqlConnection.close();
-					} catch (SQLException e) {
-					}
-					database.delete();
-					*/
-
 					callback.failed(ioe);
 				}
 				
 				@Override
 				public void closed() {
-					/*
-					try {
-						sqlConnection.close();
-					} catch (SQLException e) {
-					}
-					database.delete();
-					*/
-
 					callback.closed();
 				}
 			});
 		}
 		
 		@Override
-		public void send(Address address, ByteBuffer sourceBuffer, SendCallback sendCallback) {
-			/*
-			if ((database == null) || (sqlConnection == null)) {
-				sendCallback.failed(new IOException("Could not be created"));
-				return;
-			}
-			*/
-
-			Context<T> context;
+		public void send(final Address address, ByteBuffer sourceBuffer, SendCallback sendCallback) {
+			final Context<T> context;
 			{
 				ByteBuffer sb = sourceBuffer.duplicate();
 				try {
@@ -288,107 +287,156 @@ public final class InMemoryCache {
 
 			double now = DateUtils.now();
 			
-			boolean send;
-			Connection callback;
-			ByteBuffer data;
-			synchronized (cacheByDestinationAddress) {
-				callback = connectCallback;
-				
-				CacheByAddress<T> cache = cacheByDestinationAddress.get(address);
-				if (cache == null) {
-					LOGGER.trace("New cache (address = {}, expiration = {})", address, dataExpiration);
-					cache = new CacheByAddress<T>(dataExpiration, requestExpiration);
-					cacheByDestinationAddress.put(address, cache);
-				}
+			boolean send = false;
+			Connection callback = connectCallback;
+			ByteBuffer data = null;
+			ByteBuffer stale = null; // Served at once while a fresh request is sent: expired within the grace period, or from the database (e.g. after a restart)
+			ByteBuffer fromDatabase = null;
+			boolean databaseRead = false;
+			while (true) {
+				boolean readDatabase = false;
+				stale = null;
+				synchronized (lock(address)) {
+					CacheByAddress<T> cache = cacheByDestinationAddress.get(address);
+					if (cache == null) {
+						LOGGER.trace("New cache (address = {}, expiration = {})", address, dataExpiration);
+						cache = new CacheByAddress<T>(retention, requestExpiration);
+						cacheByDestinationAddress.put(address, cache);
+					}
+		
+					DataCache<T> subs = cache.requestsByKey.get(context.key);
 	
-				DataCache<T> subs = cache.requestsByKey.get(context.key);
-
-				if (subs != null) {
-					if (subs.data == null) {
-						if (now >= (subs.creation + requestExpiration)) {
+					data = null;
+					if (subs != null) {
+						if (subs.offHeap) {
+							data = offHeapData.get(dataKey(address, context.key));
+							if (data == null) {
+								LOGGER.trace("Response evicted (address = {}, key = {})", address, context.key);
+								subs = null;
+							}
+						} else if (subs.data != null) {
+							data = subs.data;
+						} else if (now >= (subs.creation + requestExpiration)) {
 							subs = null;
 						}
 					}
+					
+					boolean revalidate = false;
+					if ((data != null) && (staleWhileRevalidate > 0d) && (dataExpiration > 0d) && (now >= (subs.timestamp + dataExpiration))) {
+						stale = data;
+						data = null;
+						// A single request at a time, until its response or its expiration
+						if (now >= (subs.revalidation + ((requestExpiration > 0d) ? requestExpiration : staleWhileRevalidate))) {
+							subs.revalidation = now;
+							revalidate = true;
+						}
+					}
+					
+					if ((data == null) && (stale == null) && (database != null)) {
+						if (databaseRead) {
+							stale = fromDatabase;
+						} else {
+							readDatabase = true;
+						}
+					}
+					
+					if (!readDatabase) {
+						if (subs == null) {
+							subs = new DataCache<T>(now, requestExpiration);
+							cache.requestsByKey.put(context.key, subs);
+							send = true;
+							LOGGER.trace("New request (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
+						} else if (revalidate) {
+							send = true;
+							LOGGER.trace("Revalidating (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+						} else {
+							send = false;
+							LOGGER.trace("Request already sent (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
+						}
+						
+						if (send || ((data == null) && (stale == null))) {
+							if (stale == null) {
+								subs.subs.put(context.sub, null);
+							}
+							cache.subToKey.put(context.sub, context.key);
+						}
+					}
 				}
 				
-				if (subs == null) {
-					subs = new DataCache<T>(now, requestExpiration);
-					cache.requestsByKey.put(context.key, subs);
-					send = true;
-					LOGGER.trace("New request (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
-				} else {
-					send = false;
-					LOGGER.trace("Request already sent (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
-				}
-				
-				data = subs.data;
-				
-				if (send || (data == null)) {
-					subs.subs.put(context.sub, null);
-					cache.subToKey.put(context.sub, context.key);
+				if (!readDatabase) {
+					break;
 				}
+				// Read out of the lock (the file may be compacting), then the cache is looked up again
+				fromDatabase = database.get(dataKey(address, context.key));
+				databaseRead = true;
 			}
 
 			if (send) {
-				wrappee.send(address, sourceBuffer, sendCallback);
-			} else {
-				if (callback != null) {
-					if (data != null) {
-						ByteBuffer b = data.duplicate();
-						ByteBuffer tb;
-						try {
-							tb = interpreter.transform(b, context.sub);
-						} catch (Exception e) {
-							sendCallback.failed(new IOException("Invalid packet", e));
-							return;
-						}
-						sendCallback.sent();
-						LOGGER.trace("Got from cache (address = {}, key = {}, sub = {})", address, context.key, context.sub);
-						callback.received(address, tb);
-						return;
+				if (stale == null) {
+					wrappee.send(address, sourceBuffer, sendCallback);
+					return;
+				}
+				// The stale response is served now, the fresh one only refreshes the cache
+				wrappee.send(address, sourceBuffer, new SendCallback() {
+					@Override
+					public void sent() {
 					}
-					/*
+					@Override
+					public void failed(IOException ioe) {
+						LOGGER.trace("Refresh could not be sent (address = {}, key = {})", address, context.key, ioe);
+					}
+				});
+			}
+
+			if (data == null) {
+				data = stale;
+			}
+			if (callback != null) {
+				if (data != null) {
+					ByteBuffer b = data.duplicate();
+					ByteBuffer tb;
 					try {
-						try (PreparedStatement s = sqlConnection.prepareStatement("SELECT `packet` FROM `data` WHERE `address`= ? AND `key` = ?")) {
-							int k = 1;
-							s.setString(k++, address.toString());
-							s.setString(k++, context.key);
-							ResultSet rs = s.executeQuery();
-							while (rs.next()) {
-								ByteBuffer bb = ByteBuffer.wrap(rs.getBytes("packet"));
-								
-								LOGGER.trace("Response exists (address = {}, key = {}, sub = {})", address, context.key, context.sub);
-								
-								callback.received(address, interpreter.transform(bb, context.sub));
-								return;
-							}
-						}
-					} catch (SQLException se) {
-						LOGGER.error("SQL error", se);
+						tb = interpreter.transform(b, context.sub);
+					} catch (Exception e) {
+						sendCallback.failed(new IOException("Invalid packet", e));
+						return;
 					}
-					*/
+					sendCallback.sent();
+					LOGGER.trace("Got from cache (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+					callback.received(address, tb);
+					return;
 				}
-
-				LOGGER.trace("Response does not exist yet (address = {}, key = {}, sub = {})", address, context.key, context.sub);
-				sendCallback.sent();
 			}
-			
+
+			LOGGER.trace("Response does not exist yet (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+			sendCallback.sent();
+		}
+		
+		private Object lock(Address address) {
+			int h = address.hashCode();
+			h ^= (h >>> 16);
+			return locks[h & (locks.length - 1)];
+		}
+		
+		private static String dataKey(Address address, String key) {
+			return address + " " + key;
 		}
 		
 		@Override
 		public void close() {
 			wrappee.close();
-			/*
-			if (sqlConnection != null) {
-				try {
-					sqlConnection.close();
-				} catch (SQLException e) {
-				}
-			}
 			if (database != null) {
-				database.delete();
+				// After the pending writes
+				final Wait w = new Wait();
+				databaseExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						database.close();
+						w.run();
+					}
+				});
+				w.waitFor();
 			}
-			*/
 		}
 	}
 	
@@ -409,18 +457,22 @@ public final class InMemoryCache {
 	private static final class DataCache<T> {
 		public final double creation;
 		public ByteBuffer data = null;
+		public boolean offHeap = false; // Then data is in InnerConnecter.offHeapData
+		public double timestamp = 0d; // Of the response
+		public double revalidation = 0d; // Last request sent for a stale response
 		public final MemoryCache<T, Void> subs;
 		public DataCache(double now, double requestExpiration) {
 			creation = now;
-			subs = MemoryCache.<T, Void> builder().expireAfterWrite(requestExpiration).build();
+			subs = MemoryCache.<T, Void> builder().expireAfterWrite(requestExpiration).concurrency(1).build();
 		}
 	}
+	// Only used under the lock of its address
 	private static final class CacheByAddress<T> {
 		public final MemoryCache<String, DataCache<T>> requestsByKey;
 		public final MemoryCache<T, String> subToKey;
 		public CacheByAddress(double dataExpiration, double requestExpiration) {
-			requestsByKey = MemoryCache.<String, DataCache<T>> builder().expireAfterWrite(dataExpiration).build();
-			subToKey = MemoryCache.<T, String> builder().expireAfterWrite(requestExpiration).build();
+			requestsByKey = MemoryCache.<String, DataCache<T>> builder().expireAfterWrite(dataExpiration).concurrency(1).build();
+			subToKey = MemoryCache.<T, String> builder().expireAfterWrite(requestExpiration).concurrency(1).build();
 		}
 	}
 }
@@ -9,6 +9,8 @@ import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +18,9 @@ import org.slf4j.LoggerFactory;
 import com.davfx.ninio.core.dependencies.Dependencies;
 import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.Housekeeping;
+import com.davfx.ninio.util.MpscArrayQueue;
+import com.davfx.ninio.util.TimingWheel;
 import com.typesafe.config.Config;
 
 final class InternalQueue implements Queue, AutoCloseable {
@@ -24,11 +29,79 @@ final class InternalQueue implements Queue, AutoCloseable {
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpSocket.class.getPackage().getName());
 	private static final double WAIT_ON_ERROR = ConfigUtils.getDuration(CONFIG, "queue.waitOnError");
 	private static final double WAIT_ON_CLOSE = ConfigUtils.getDuration(CONFIG, "queue.waitOnClose");
+	private static final int TASKS_CAPACITY = CONFIG.getInt("queue.tasks.capacity");
+	private static final int TASKS_MAX = CONFIG.getInt("queue.tasks.max");
+	private static final long SPIN_ITERATIONS = CONFIG.getLong("queue.spin.iterations");
+	private static final long SPIN_DURATION = (long) (ConfigUtils.getDuration(CONFIG, "queue.spin.duration") * 1000000000d);
+	private static final boolean SPIN = (SPIN_ITERATIONS > 0L) || (SPIN_DURATION > 0L);
+	private static final long TIMER_TICK = Math.max(1L, (long) (ConfigUtils.getDuration(CONFIG, "queue.timer.tick") * 1000000000d));
+	private static final int TIMER_WHEEL_SIZE = CONFIG.getInt("queue.timer.wheel.size");
+	private static final int TIMER_WHEEL_LEVELS = CONFIG.getInt("queue.timer.wheel.levels");
+
+	private static final AtomicInteger LOOP_ID = new AtomicInteger(0);
 
 	private final Selector selector;
-	private final ConcurrentLinkedQueue<Runnable> toRun = new ConcurrentLinkedQueue<Runnable>(); // Using LinkedBlockingQueue my prevent OutOfMemory errors but may DEADLOCK
+	private final Thread thread;
+
+	private final MpscArrayQueue<Runnable> toRun = new MpscArrayQueue<>(TASKS_CAPACITY);
+	// When toRun is full, producers must never block (it may DEADLOCK) so tasks overflow here, and keep doing so until it is drained to keep their order
+	private final ConcurrentLinkedQueue<Runnable> toRunOverflow = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger toRunOverflowCount = new AtomicInteger(0);
+
+	// Set when the selector has been woken up (or is about to be checked for tasks), cleared by the loop just before selecting
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+	// Only accessed by the loop thread, advanced after each select (which does not block longer than a tick while timers are pending)
+	private final long origin = System.nanoTime();
+	private final TimingWheel timers = new TimingWheel(TIMER_WHEEL_SIZE, TIMER_WHEEL_LEVELS, 0L);
+	private volatile int pendingTimers = 0;
+
+	// Only written by the loop thread
+	private volatile long iterations = 0L;
+	private volatile long productiveIterations = 0L;
+	private volatile long idleSpins = 0L;
+	private volatile long blockingSelects = 0L;
+
+	private final String metricsPrefix;
+	private final Histogram selectDurations; // Microseconds blocked in select
+	private final Histogram tasksPerCycle;
 
 	public InternalQueue(final NinioPriority priority) {
+		metricsPrefix = "loop." + priority.name().toLowerCase() + "." + LOOP_ID.getAndIncrement();
+		Metrics metrics = Metrics.global();
+		metrics.gauge(metricsPrefix + ".iterations", new Gauge() {
+			@Override
+			public long get() {
+				return iterations;
+			}
+		});
+		metrics.gauge(metricsPrefix + ".productive", new Gauge() {
+			@Override
+			public long get() {
+				return productiveIterations;
+			}
+		});
+		metrics.gauge(metricsPrefix + ".idleSpins", new Gauge() {
+			@Override
+			public long get() {
+				return idleSpins;
+			}
+		});
+		metrics.gauge(metricsPrefix + ".blockingSelects", new Gauge() {
+			@Override
+			public long get() {
+				return blockingSelects;
+			}
+		});
+		metrics.gauge(metricsPrefix + ".timers", new Gauge() {
+			@Override
+			public long get() {
+				return pendingTimers;
+			}
+		});
+		selectDurations = metrics.histogram(metricsPrefix + ".select");
+		tasksPerCycle = metrics.histogram(metricsPrefix + ".tasks");
+
 		try {
 			selector = SelectorProvider.provider().openSelector();
 		} catch (IOException ioe) {
@@ -36,14 +109,16 @@ final class InternalQueue implements Queue, AutoCloseable {
 			throw new RuntimeException(ioe);
 		}
 
-		Thread t = new ClassThreadFactory(InternalQueue.class).newThread(new Runnable() {
+		thread = new ClassThreadFactory(InternalQueue.class).newThread(new Runnable() {
 			@Override
 			public void run() {
 				while (true) {
 					try {
 						try {
-							selector.select();
+							select();
 						} catch (ClosedSelectorException ce) {
+							LOGGER.debug("[{}] Loop closed after {} iterations ({} productive, {} idle spins, {} blocking selects)", priority, iterations, productiveIterations, idleSpins, blockingSelects);
+							Metrics.global().remove(metricsPrefix);
 							return;
 						}
 						Set<SelectionKey> s;
@@ -52,7 +127,9 @@ final class InternalQueue implements Queue, AutoCloseable {
 						} catch (ClosedSelectorException ce) {
 							return;
 						}
-						if (s != null) {
+						iterations++;
+						if ((s != null) && !s.isEmpty()) {
+							productiveIterations++;
 							for (SelectionKey key : s) {
 								try {
 									((SelectionKeyVisitor) key.attachment()).visit(key);
@@ -70,29 +147,132 @@ final class InternalQueue implements Queue, AutoCloseable {
 						}
 					}
 
-					while (!toRun.isEmpty()) {
-						Runnable r = toRun.poll();
+					// Bounded so that I/O readiness is not starved, remaining tasks are run after a non-blocking select
+					int n = 0;
+					while ((TASKS_MAX <= 0) || (n < TASKS_MAX)) {
+						Runnable r = pollTask();
+						if (r == null) {
+							break;
+						}
+						n++;
 						try {
 							r.run();
 						} catch (Throwable e) {
 							LOGGER.error("[{}] Error in running task", priority, e);
 						}
 					}
+					if (n > 0) {
+						tasksPerCycle.record(n);
+					}
+					
+					if (!timers.isEmpty()) {
+						timers.advance(currentTick());
+						pendingTimers = timers.size();
+					}
 				}
 			}
 		});
 		
 		if (priority == NinioPriority.HIGH) {
-			t.setPriority(Thread.MAX_PRIORITY);
+			thread.setPriority(Thread.MAX_PRIORITY);
 		}
-		t.setDaemon(true);
-		t.start();
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void select() throws IOException {
+		if (SPIN) {
+			// No wakeup needed while spinning, tasks are checked on each spin
+			wakeupPending.set(true);
+			long end = (SPIN_DURATION > 0L) ? (System.nanoTime() + SPIN_DURATION) : 0L;
+			long i = 0L;
+			while (true) {
+				if ((selector.selectNow() > 0) || hasTasks()) {
+					return;
+				}
+				idleSpins++;
+				i++;
+				if ((SPIN_ITERATIONS > 0L) && (i >= SPIN_ITERATIONS)) {
+					break;
+				}
+				if ((SPIN_DURATION > 0L) && (System.nanoTime() >= end)) {
+					break;
+				}
+			}
+		}
+
+		wakeupPending.set(false);
+		if (hasTasks()) {
+			selector.selectNow();
+		} else {
+			blockingSelects++;
+			long t = System.nanoTime();
+			if (timers.isEmpty()) {
+				selector.select();
+			} else {
+				selector.select(Math.max(1L, TIMER_TICK / 1000000L));
+			}
+			selectDurations.record((System.nanoTime() - t) / 1000L);
+		}
+	}
+
+	/**
+	 * Select cycles that had ready keys.
+	 */
+	public long productiveIterations() {
+		return productiveIterations;
+	}
+
+	/**
+	 * Non-blocking selects that found neither ready keys nor tasks (busy-poll mode only).
+	 */
+	public long idleSpins() {
+		return idleSpins;
+	}
+
+	public long blockingSelects() {
+		return blockingSelects;
+	}
+
+	public long iterations() {
+		return iterations;
+	}
+
+	private long currentTick() {
+		return (System.nanoTime() - origin) / TIMER_TICK;
+	}
+
+	private boolean hasTasks() {
+		return !toRun.isEmpty() || (toRunOverflowCount.get() > 0);
+	}
+
+	private Runnable pollTask() {
+		Runnable r = toRun.poll();
+		if (r != null) {
+			return r;
+		}
+		r = toRunOverflow.poll();
+		if (r != null) {
+			toRunOverflowCount.decrementAndGet();
+		}
+		return r;
 	}
 	
 	@Override
 	public void execute(Runnable command) {
-		toRun.add(command);
-		selector.wakeup();
+		if ((toRunOverflowCount.get() > 0) || !toRun.offer(command)) {
+			toRunOverflowCount.incrementAndGet();
+			toRunOverflow.add(command);
+		}
+
+		// The loop checks the tasks before selecting again, and a burst of tasks only wakes the selector up once.
+		// The task is published by a volatile write, so either the loop sees it after clearing the flag, or the flag is seen cleared here
+		if (Thread.currentThread() == thread) {
+			return;
+		}
+		if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
 	}
 	
 	@Override
@@ -100,6 +280,24 @@ final class InternalQueue implements Queue, AutoCloseable {
 		return channel.register(selector, 0);
 	}
 	
+	@Override
+	public Scheduled schedule(double delay, Runnable task) {
+		long now = currentTick();
+		if (timers.isEmpty()) {
+			timers.advance(now); // Catches up at once on the time spent without timers
+		}
+		long ticks = Math.max(1L, (long) Math.ceil((delay * 1000000000d) / TIMER_TICK));
+		final TimingWheel.Entry entry = timers.schedule(now + ticks, task);
+		pendingTimers = timers.size();
+		return new Scheduled() {
+			@Override
+			public void cancel() {
+				timers.cancel(entry);
+				pendingTimers = timers.size();
+			}
+		};
+	}
+	
 	/*%%
 	@Override
 	public void waitFor() {
@@ -111,22 +309,15 @@ final class InternalQueue implements Queue, AutoCloseable {
 	
 	@Override
 	public void close() {
-		Thread t = new ClassThreadFactory(InternalQueue.class).newThread(new Runnable() {
+		Housekeeping.schedule(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep((long) (WAIT_ON_CLOSE * 1000d));
-				} catch (InterruptedException ie) {
-				}
 				try {
 					selector.close();
 				} catch (IOException e) {
 				}
 				selector.wakeup();
 			}
-		});
-		
-		t.setDaemon(true);
-		t.start();
+		}, WAIT_ON_CLOSE);
 	}
 }
@@ -1,143 +1,279 @@
 package com.davfx.ninio.core;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.davfx.ninio.util.SerialExecutor;
-
+/**
+ * Limits the number of tasks running at the same time, altogether or by key (e.g. by destination {@link Address}).
+ * <p>
+ * A task takes a slot on its first {@link Manager#add(Runnable)} and frees it on {@link Manager#cancel()}. Its runnables are run in order,
+ * at once if it has a slot, or as soon as it gets one. The freed slots are given to the waiting tasks in the order they asked for them.
+ * <p>
+ * Lock-free: the runnables are run by the thread adding them, or by the thread freeing the slot. The time spent waiting for a slot is recorded
+ * in the global {@code limit.wait} histogram (in microseconds).
+ * <p>
+ * The slots of a key are forgotten once all its tasks are canceled.
+ */
 public final class Limit {
-	
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(Limit.class);
 
-	private final Executor executor = new SerialExecutor(Limit.class);
-	
-	private static final class Task {
-		public long id = -1L;
-		
-		private final List<Runnable> runnables = new LinkedList<>();
-		private boolean canceled = false;
-		private boolean running = false;
+	private static final Histogram WAIT = Metrics.global().histogram("limit.wait");
+	private static final Counter WAITED = Metrics.global().counter("limit.waited");
+
+	private static final int NEW = 0;
+	private static final int WAITING = 1;
+	private static final int RUNNING = 2;
+	private static final int CANCELED = 3;
+
+	private final class Pool {
+		private final Object key; // null if not in pools
+		public final AtomicInteger running = new AtomicInteger(0);
+		public final ConcurrentLinkedQueue<Task> waiting = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger dispatching = new AtomicInteger(0);
+		private final AtomicInteger tasks = new AtomicInteger(0); // Not canceled yet (only counted if in pools), -1 once removed
+
+		public Pool(Object key) {
+			this.key = key;
+		}
+
+		// False if the pool has been removed, then another one must be used
+		public boolean retain() {
+			while (true) {
+				int n = tasks.get();
+				if (n < 0) {
+					return false;
+				}
+				if (tasks.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		// Without tasks, nothing is running or waiting: the pool is removed, unless a task has just been created meanwhile
+		public void release() {
+			if ((key == null) || (tasks.decrementAndGet() != 0)) {
+				return;
+			}
+			if (tasks.compareAndSet(0, -1)) {
+				pools.remove(key, this);
+				LOGGER.trace("Pool removed: {}", key);
+			}
+		}
 
-		public Task() {
+		public boolean tryAcquire(int max) {
+			while (true) {
+				int r = running.get();
+				if (r >= max) {
+					return false;
+				}
+				if (running.compareAndSet(r, r + 1)) {
+					return true;
+				}
+			}
+		}
+
+		// Gives the free slots to the waiting tasks, called after each change of either. One thread at a time, so that the tasks
+		// freeing their slot from their runnables do not recurse
+		public void dispatch() {
+			if (dispatching.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			while (true) {
+				while (true) {
+					Task head = waiting.peek();
+					if (head == null) {
+						break;
+					}
+					if (head.state.get() == CANCELED) {
+						waiting.remove(head);
+						continue;
+					}
+					if (!tryAcquire(head.max)) {
+						break;
+					}
+					Task t = waiting.poll();
+					if ((t == null) || !t.state.compareAndSet(WAITING, RUNNING)) {
+						running.decrementAndGet();
+						continue;
+					}
+					WAIT.record((System.nanoTime() - t.waitingSince) / 1000L);
+					LOGGER.trace("Running waiting task, now running {}", running.get());
+					t.drain();
+				}
+				missed = dispatching.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
 		}
 	}
 
-	private long nextId = 0L;
-	private final Map<Long, Task> tasks = new LinkedHashMap<>();
-	
-	private int currentlyRunning = 0;
-	
+	private final class Task implements Manager {
+		private final Pool pool;
+		public final int max;
+		public final AtomicInteger state = new AtomicInteger(NEW);
+		public long waitingSince = 0L;
+		private final ConcurrentLinkedQueue<Runnable> runnables = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger draining = new AtomicInteger(0);
+
+		public Task(Pool pool, int max) {
+			this.pool = pool;
+			this.max = max;
+		}
+
+		// Runs the pending runnables if the task has a slot, drops them if canceled, one thread at a time
+		public void drain() {
+			if (draining.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			while (true) {
+				while (true) {
+					int s = state.get();
+					if (s == RUNNING) {
+						Runnable r = runnables.poll();
+						if (r == null) {
+							break;
+						}
+						r.run();
+					} else {
+						if (s == CANCELED) {
+							runnables.clear();
+						}
+						break;
+					}
+				}
+				missed = draining.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void add(Runnable runnable) {
+			if (state.get() == CANCELED) {
+				return;
+			}
+			runnables.add(runnable);
+			if (state.compareAndSet(NEW, WAITING)) {
+				if (pool.waiting.isEmpty() && pool.tryAcquire(max)) {
+					if (state.compareAndSet(WAITING, RUNNING)) {
+						WAIT.record(0L);
+						LOGGER.trace("Task immediately running, now running {}", pool.running.get());
+					} else {
+						pool.running.decrementAndGet();
+						pool.dispatch();
+					}
+				} else {
+					waitingSince = System.nanoTime();
+					WAITED.inc();
+					pool.waiting.add(this);
+					LOGGER.trace("Waiting task registered");
+					pool.dispatch();
+				}
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			while (true) {
+				int s = state.get();
+				if (s == CANCELED) {
+					return;
+				}
+				if (state.compareAndSet(s, CANCELED)) {
+					if (s == RUNNING) {
+						pool.running.decrementAndGet();
+						LOGGER.trace("Task canceled, now running {}", pool.running.get());
+						pool.dispatch();
+					} else if (s == WAITING) {
+						LOGGER.trace("Limited task canceled without having been run");
+						pool.waiting.remove(this);
+					} else {
+						LOGGER.trace("Limited task canceled without having been used");
+					}
+					pool.release();
+					drain();
+					return;
+				}
+			}
+		}
+	}
+
+	private final Pool pool = new Pool(null);
+	private final ConcurrentMap<Object, Pool> pools = new ConcurrentHashMap<>(); // Removed once all their tasks are canceled
+
 	public Limit() {
 	}
-	
+
 	public static interface Manager {
 		void add(Runnable runnable);
 		void cancel();
 	}
-	
-	public Manager inc(final int max) {
-		if (max <= 0) {
-			return new Manager() {
-				@Override
-				public void cancel() {
-				}
-				@Override
-				public void add(Runnable runnable) {
-					runnable.run();
-				}
-			};
-		}
-		
-		final Task task = new Task();
+
+	private static Manager unlimited() {
 		return new Manager() {
 			@Override
-			public void add(final Runnable runnable) {
-				executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						if (task.canceled) {
-							return;
-						}
-						
-						if (!task.running && (currentlyRunning < max)) {
-							task.running = true;
-							currentlyRunning++;
-							LOGGER.trace("Task immediately running, now running {}", currentlyRunning);
-						}
-						
-						if (task.running) {
-							runnable.run();
-							return;
-						}
-
-						if (task.id < 0L) {
-							task.id = nextId;
-							nextId++;
-							tasks.put(task.id, task);
-							LOGGER.trace("Waiting task registered: {}", task.id);
-						}
-						task.runnables.add(runnable);
-					}
-				});
+			public void cancel() {
 			}
-			
 			@Override
-			public void cancel() {
-				executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						if (task.canceled) {
-							return;
-						}
-						
-						task.canceled = true;
-
-						if (task.running) {
-							currentlyRunning--;
-							
-							if (currentlyRunning < 0) {
-								throw new IllegalStateException();
-							}
-
-							LOGGER.trace("Task canceled (id = {}), now running {}", task.id, currentlyRunning);
-
-							if (!tasks.isEmpty()) {
-								Iterator<Task> i = tasks.values().iterator();
-								Task t = i.next();
-								i.remove();
-
-								LOGGER.trace("Running waiting task: {}", t.id);
-
-								t.running = true;
-								currentlyRunning++;
-
-								if (currentlyRunning > max) {
-									throw new IllegalStateException();
-								}
-
-								for (Runnable r : t.runnables) {
-									r.run();
-								}
-								t.runnables.clear();
-							}
-						} else {
-							if (task.id >= 0L) {
-								LOGGER.trace("Limited task canceled without having been run: {}", task.id);
-								tasks.remove(task.id);
-							} else {
-								LOGGER.trace("Limited task canceled without having been used");
-							}
-						}
-					}
-				});
+			public void add(Runnable runnable) {
+				runnable.run();
 			}
 		};
 	}
+
+	public Manager inc(int max) {
+		if (max <= 0) {
+			return unlimited();
+		}
+		return new Task(pool, max);
+	}
+
+	/**
+	 * The tasks of a key only share slots with the tasks of the same key, not with the ones of {@link #inc(int)}.
+	 */
+	public Manager inc(Object key, int max) {
+		if (max <= 0) {
+			return unlimited();
+		}
+		while (true) {
+			Pool p = pools.get(key);
+			if (p == null) {
+				p = new Pool(key);
+				Pool previous = pools.putIfAbsent(key, p);
+				if (previous != null) {
+					p = previous;
+				}
+			}
+			if (p.retain()) {
+				return new Task(p, max);
+			}
+			// Being removed, not to be shared with a new pool of the same key
+			pools.remove(key, p);
+		}
+	}
+
+	/**
+	 * Tasks currently holding a slot, altogether (not by key).
+	 */
+	public int running() {
+		return pool.running.get();
+	}
+
+	/**
+	 * Keys with tasks not canceled yet.
+	 */
+	public int keys() {
+		return pools.size();
+	}
 }
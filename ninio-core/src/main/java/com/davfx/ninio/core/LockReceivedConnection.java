@@ -29,7 +29,7 @@ public final class LockReceivedConnection implements Connection {
 	}
 	@Override
 	public void received(Address address, ByteBuffer buffer) {
-		lock.set(buffer);
+		lock.set(PooledByteBufferAllocator.copyIfPooled(buffer)); // Read from another thread
 		wrappee.received(address, buffer);
 	}
 }
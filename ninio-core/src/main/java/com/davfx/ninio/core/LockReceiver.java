@@ -13,6 +13,6 @@ public final class LockReceiver implements Receiver {
 	
 	@Override
 	public void received(Address address, ByteBuffer buffer) {
-		lock.set(buffer);
+		lock.set(PooledByteBufferAllocator.copyIfPooled(buffer)); // Read from another thread
 	}
 }
@@ -0,0 +1,231 @@
+package com.davfx.ninio.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.Housekeeping;
+import com.typesafe.config.Config;
+
+/**
+ * Registry of named counters, histograms and gauges.
+ * <p>
+ * Sockets and selector loops register their metrics in the {@link #global() global} registry, which is exported through JMX
+ * ({@code com.davfx.ninio:type=Metrics}, one attribute per value) and can be logged periodically ({@code metrics.log}).
+ * Names are dot-separated, per-socket and per-loop metrics are prefixed by their type and their name (e.g. {@code udp.0.0.0.0-162.in.packets}).
+ * The threads of the shared {@link Housekeeping} pools are counted in the {@code housekeeping.*} gauges.
+ */
+public final class Metrics {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(Metrics.class.getPackage().getName());
+	private static final boolean JMX = CONFIG.getBoolean("metrics.jmx");
+	private static final double LOG = ConfigUtils.getDuration(CONFIG, "metrics.log");
+
+	private static final Metrics GLOBAL = new Metrics();
+	static {
+		if (JMX) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL.new MBean(), new ObjectName("com.davfx.ninio:type=Metrics"));
+			} catch (Exception e) {
+				LOGGER.warn("Could not register metrics in JMX", e);
+			}
+		}
+		GLOBAL.gauge("housekeeping.scheduler.threads", new Gauge() {
+			@Override
+			public long get() {
+				return Housekeeping.schedulerThreads();
+			}
+		});
+		GLOBAL.gauge("housekeeping.scheduler.tasks", new Gauge() {
+			@Override
+			public long get() {
+				return Housekeeping.scheduledTasks();
+			}
+		});
+		GLOBAL.gauge("housekeeping.workers.threads", new Gauge() {
+			@Override
+			public long get() {
+				return Housekeeping.workerThreads();
+			}
+		});
+		GLOBAL.gauge("housekeeping.workers.active", new Gauge() {
+			@Override
+			public long get() {
+				return Housekeeping.activeWorkerThreads();
+			}
+		});
+		if (LOG > 0d) {
+			Housekeeping.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					LOGGER.debug("Metrics: {}", GLOBAL.values());
+				}
+			}, LOG, LOG);
+		}
+	}
+
+	public static Metrics global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Makes a string usable as a part of a metric name.
+	 */
+	public static String name(Object o) {
+		return String.valueOf(o).replace(':', '-').replace(' ', '_');
+	}
+
+	private final ConcurrentSkipListMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+	public Metrics() {
+	}
+
+	public Counter counter(String name) {
+		Object o = metrics.get(name);
+		if (o == null) {
+			Counter c = new Counter();
+			o = metrics.putIfAbsent(name, c);
+			if (o == null) {
+				return c;
+			}
+		}
+		if (!(o instanceof Counter)) {
+			throw new IllegalArgumentException("Not a counter: " + name);
+		}
+		return (Counter) o;
+	}
+
+	public Histogram histogram(String name) {
+		Object o = metrics.get(name);
+		if (o == null) {
+			Histogram h = new Histogram();
+			o = metrics.putIfAbsent(name, h);
+			if (o == null) {
+				return h;
+			}
+		}
+		if (!(o instanceof Histogram)) {
+			throw new IllegalArgumentException("Not a histogram: " + name);
+		}
+		return (Histogram) o;
+	}
+
+	/**
+	 * Replaces the previous gauge of the same name, if any.
+	 */
+	public void gauge(String name, Gauge gauge) {
+		while (true) {
+			Object o = metrics.get(name);
+			if (o == null) {
+				if (metrics.putIfAbsent(name, gauge) == null) {
+					return;
+				}
+				continue;
+			}
+			if (!(o instanceof Gauge)) {
+				throw new IllegalArgumentException("Not a gauge: " + name);
+			}
+			if (metrics.replace(name, o, gauge)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the given metric and all the metrics it prefixes.
+	 */
+	public void remove(String name) {
+		metrics.remove(name);
+		metrics.subMap(name + ".", name + "/").clear(); // '/' follows '.'
+	}
+
+	/**
+	 * Current values, sorted by name. Histograms are expanded into {@code .count}, {@code .mean}, {@code .p50}, {@code .p99} and {@code .max}.
+	 */
+	public Map<String, Long> values() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> e : metrics.entrySet()) {
+			String name = e.getKey();
+			Object o = e.getValue();
+			if (o instanceof Counter) {
+				values.put(name, ((Counter) o).get());
+			} else if (o instanceof Gauge) {
+				values.put(name, ((Gauge) o).get());
+			} else if (o instanceof Histogram) {
+				Histogram h = (Histogram) o;
+				values.put(name + ".count", h.count());
+				values.put(name + ".mean", Math.round(h.mean()));
+				values.put(name + ".p50", h.percentile(0.5d));
+				values.put(name + ".p99", h.percentile(0.99d));
+				values.put(name + ".max", h.max());
+			}
+		}
+		return values;
+	}
+
+	private final class MBean implements DynamicMBean {
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Long v = values().get(attribute);
+			if (v == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return v;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Long> values = values();
+			AttributeList l = new AttributeList();
+			for (String a : attributes) {
+				Long v = values.get(a);
+				if (v != null) {
+					l.add(new Attribute(a, v));
+				}
+			}
+			return l;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (String name : values().keySet()) {
+				attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+			}
+			return new MBeanInfo(Metrics.class.getName(), "Ninio metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+		}
+	}
+}
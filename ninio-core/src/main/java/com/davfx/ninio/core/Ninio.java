@@ -12,39 +12,68 @@ public final class Ninio implements AutoCloseable {
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(Ninio.class.getPackage().getName());
 	private static final int THREADING = CONFIG.getInt("threading");
 	private static final int MAX_QUEUE = CONFIG.getInt("queue.max");
+	private static final int LOOPS = CONFIG.getInt("queue.loops");
 
 	private final SerialExecutor[] internalExecutors = new SerialExecutor[THREADING];
 	private final AtomicLong internalExecutorIndex = new AtomicLong(0L);
 
-	private final InternalQueue[] internalQueues;
+	// One group of selector loops per priority, connections are spread across the loops of a group
+	private final InternalQueue[][] internalQueues;
+	private final AtomicLong[] internalQueueIndexes;
 
-	private Ninio() {
+	private Ninio(int loops) {
 		for (int i = 0; i < internalExecutors.length; i++) {
 			internalExecutors[i] = new SerialExecutor(Ninio.class);
 		}
 		NinioPriority[] priorities = NinioPriority.values();
-		internalQueues = new InternalQueue[Math.min(priorities.length, MAX_QUEUE)];
+		internalQueues = new InternalQueue[Math.min(priorities.length, MAX_QUEUE)][];
+		internalQueueIndexes = new AtomicLong[internalQueues.length];
 		for (int i = 0; i < internalQueues.length; i++) {
-			internalQueues[i] = new InternalQueue(priorities[i % priorities.length]);
+			internalQueues[i] = new InternalQueue[loops];
+			for (int j = 0; j < loops; j++) {
+				internalQueues[i][j] = new InternalQueue(priorities[i % priorities.length]);
+			}
+			internalQueueIndexes[i] = new AtomicLong(0L);
 		}
 	}
 	
 	@Override
 	public void close() {
-		for (InternalQueue internalQueue : internalQueues) {
-			internalQueue.close();
+		for (InternalQueue[] group : internalQueues) {
+			for (InternalQueue internalQueue : group) {
+				internalQueue.close();
+			}
 		}
 	}
 	
 	public static Ninio create() {
-		return new Ninio();
+		return create((LOOPS > 0) ? LOOPS : Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * With the given number of selector loops per priority, instead of {@code queue.loops}.
+	 */
+	public static Ninio create(int loops) {
+		return new Ninio(loops);
 	}
 	
 	public <T> T create(NinioBuilder<T> builder) {
 		return builder.create(new NinioProvider() {
 			@Override
 			public Queue queue(NinioPriority priority) {
-				return internalQueues[(int) (priority.ordinal() % internalQueues.length)];
+				// Each call picks the next loop of the group, the caller keeps it for the whole life of its connection
+				int i = (int) (priority.ordinal() % internalQueues.length);
+				InternalQueue[] group = internalQueues[i];
+				return group[(group.length == 1) ? 0 : ((int) (internalQueueIndexes[i].getAndIncrement() % group.length))];
+			}
+			@Override
+			public Queue queue(NinioPriority priority, int loop) {
+				InternalQueue[] group = internalQueues[(int) (priority.ordinal() % internalQueues.length)];
+				return group[loop % group.length];
+			}
+			@Override
+			public int loops(NinioPriority priority) {
+				return internalQueues[(int) (priority.ordinal() % internalQueues.length)].length;
 			}
 			@Override
 			public Executor executor() {
@@ -4,5 +4,7 @@ import java.util.concurrent.Executor;
 
 public interface NinioProvider {
 	Queue queue(NinioPriority priority);
+	int loops(NinioPriority priority); // Number of distinct queues given by queue(priority)
+	Queue queue(NinioPriority priority, int loop); // A given loop of the group, modulo loops(priority)
 	Executor executor();
 }
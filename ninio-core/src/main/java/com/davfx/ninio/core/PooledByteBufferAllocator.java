@@ -0,0 +1,365 @@
+package com.davfx.ninio.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.DateUtils;
+import com.typesafe.config.Config;
+
+/**
+ * Allocates buffers from slabs split in power-of-two size classes, with a small per-thread cache in front of each shared size class.
+ * <p>
+ * Allocated buffers are reference-counted, starting at one: the owner that is done with a buffer must call {@link #release(ByteBuffer)},
+ * and {@link #retain(ByteBuffer)} when it hands the buffer to someone else. Both must be given the allocated buffer itself, not a duplicate or a slice.
+ * A released buffer (or any duplicate of it) must not be used anymore.
+ * <p>
+ * Sockets reading into pooled buffers (built with a pool, or with an {@link AdaptiveByteBufferAllocator} taking from a pool) own them:
+ * a buffer given to {@link Connection#received(Address, ByteBuffer)} is released once the call returns. A receiver keeping the buffer (or a duplicate of it)
+ * longer, e.g. to use it from another thread, must call {@link #retainBuffer(ByteBuffer)} before returning and {@link #releaseBuffer(ByteBuffer)} when done,
+ * or keep {@link #copyIfPooled(ByteBuffer)} instead (e.g. to cache it or to send it). These work whatever pool the buffer comes from,
+ * and cost a single volatile read while no pool has been used.
+ * <p>
+ * Slabs are never given back: a pool keeps its peak footprint, bounded by {@code buffer.pool.capacity}, and its slots stay registered.
+ * <p>
+ * Slabs are direct by default, so that socket reads do not go through a temporary JDK direct buffer. Receivers calling {@link ByteBuffer#array()}
+ * must use heap slabs.
+ * <p>
+ * One instance is meant to be shared by all the builders of an application.
+ */
+public final class PooledByteBufferAllocator implements ByteBufferAllocator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PooledByteBufferAllocator.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(PooledByteBufferAllocator.class.getPackage().getName());
+	private static final int DEFAULT_SIZE = CONFIG.getBytes("buffer.default").intValue();
+	private static final boolean DIRECT = CONFIG.getBoolean("buffer.pool.direct");
+	private static final int SLAB_SIZE = CONFIG.getBytes("buffer.pool.slab").intValue();
+	private static final int MIN_SIZE = CONFIG.getBytes("buffer.pool.min").intValue();
+	static final int MAX_SIZE = CONFIG.getBytes("buffer.pool.max").intValue(); // Bigger buffers are not pooled
+	private static final long CAPACITY = CONFIG.getBytes("buffer.pool.capacity").longValue();
+	private static final int THREAD_CACHE = CONFIG.getInt("buffer.pool.cache");
+	private static final boolean LEAK_DETECTION = CONFIG.getBoolean("buffer.pool.leak.detection");
+	private static final double LEAK_AFTER = ConfigUtils.getDuration(CONFIG, "buffer.pool.leak.after");
+
+	private static final class Slot {
+		public final PooledByteBufferAllocator pool;
+		public final ByteBuffer buffer;
+		public final int sizeClass;
+		public final AtomicInteger references = new AtomicInteger(0);
+
+		// Only used for leak detection
+		public volatile double allocationTimestamp = 0d;
+		public volatile Throwable allocationTrace = null;
+
+		public Slot(PooledByteBufferAllocator pool, ByteBuffer buffer, int sizeClass) {
+			this.pool = pool;
+			this.buffer = buffer;
+			this.sizeClass = sizeClass;
+		}
+	}
+
+	// Buffers are compared by identity, ByteBuffer.equals compares their content
+	private static final class Identity {
+		private final ByteBuffer buffer;
+
+		public Identity(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(buffer);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Identity) && (((Identity) obj).buffer == buffer);
+		}
+	}
+
+	private static final ConcurrentMap<Identity, Slot> SLOTS = new ConcurrentHashMap<>(); // Of all the pools
+	private static volatile boolean used = false; // Once a slab has been allocated
+
+	private static final class ThreadCache {
+		public final Deque<Slot>[] free;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public ThreadCache(int sizeClasses) {
+			free = new Deque[sizeClasses];
+			for (int i = 0; i < free.length; i++) {
+				free[i] = new ArrayDeque<>();
+			}
+		}
+	}
+
+	private final boolean direct;
+	private final int size;
+	private final int[] sizes;
+	private final Deque<Slot>[] shared;
+
+	private final Object lock = new Object();
+	private long allocated = 0L;
+	private final AtomicInteger inUse = new AtomicInteger(0);
+	private double lastLeakCheck = 0d;
+
+	private final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			return new ThreadCache(sizes.length);
+		}
+	};
+
+	public PooledByteBufferAllocator() {
+		this(DEFAULT_SIZE, DIRECT);
+	}
+	public PooledByteBufferAllocator(int size) {
+		this(size, DIRECT);
+	}
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public PooledByteBufferAllocator(int size, boolean direct) {
+		this.size = size;
+		this.direct = direct;
+
+		int n = 0;
+		for (int s = MIN_SIZE; s <= MAX_SIZE; s *= 2) {
+			n++;
+		}
+		sizes = new int[n];
+		shared = new Deque[n];
+		int s = MIN_SIZE;
+		for (int i = 0; i < n; i++) {
+			sizes[i] = s;
+			shared[i] = new ArrayDeque<>();
+			s *= 2;
+		}
+	}
+
+	@Override
+	public ByteBuffer allocate() {
+		return allocate(size);
+	}
+
+	public ByteBuffer allocate(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass < 0) {
+			return unpooled(size);
+		}
+
+		if (LEAK_DETECTION) {
+			checkLeaks();
+		}
+
+		Deque<Slot> cache = threadCaches.get().free[sizeClass];
+		Slot slot = cache.pollFirst();
+		if (slot == null) {
+			Deque<Slot> s = shared[sizeClass];
+			synchronized (s) {
+				// Refill half of the thread cache at once
+				while (cache.size() < Math.max(1, THREAD_CACHE / 2)) {
+					Slot f = s.pollFirst();
+					if (f == null) {
+						break;
+					}
+					cache.addLast(f);
+				}
+			}
+			slot = cache.pollFirst();
+			if (slot == null) {
+				slot = grow(sizeClass);
+				if (slot == null) {
+					return unpooled(size);
+				}
+			}
+		}
+
+		slot.references.set(1);
+		inUse.incrementAndGet();
+		slot.buffer.clear();
+		slot.buffer.limit(size);
+		if (LEAK_DETECTION) {
+			slot.allocationTimestamp = DateUtils.now();
+			slot.allocationTrace = new Throwable("Buffer allocated here");
+		}
+		return slot.buffer;
+	}
+
+	public void retain(ByteBuffer buffer) {
+		retainBuffer(buffer);
+	}
+
+	public void release(ByteBuffer buffer) {
+		releaseBuffer(buffer);
+	}
+
+	/**
+	 * Takes one more reference on a buffer allocated by any pool, does nothing if the buffer does not come from a pool.
+	 */
+	public static void retainBuffer(ByteBuffer buffer) {
+		if (!used) {
+			return;
+		}
+		Slot slot = SLOTS.get(new Identity(buffer));
+		if (slot == null) {
+			return;
+		}
+		while (true) {
+			int r = slot.references.get();
+			if (r <= 0) {
+				throw new IllegalStateException("Buffer already released");
+			}
+			if (slot.references.compareAndSet(r, r + 1)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Gives back one reference on a buffer allocated by any pool, does nothing if the buffer does not come from a pool.
+	 */
+	public static void releaseBuffer(ByteBuffer buffer) {
+		if (!used) {
+			return;
+		}
+		Slot slot = SLOTS.get(new Identity(buffer));
+		if (slot == null) {
+			return;
+		}
+		int r = slot.references.decrementAndGet();
+		if (r > 0) {
+			return;
+		}
+		if (r < 0) {
+			slot.references.incrementAndGet();
+			throw new IllegalStateException("Buffer released too many times");
+		}
+
+		slot.allocationTrace = null;
+		slot.pool.free(slot);
+	}
+
+	/**
+	 * A heap copy of the remaining bytes of a buffer allocated by any pool, the buffer itself otherwise. The position of the buffer is not changed.
+	 */
+	public static ByteBuffer copyIfPooled(ByteBuffer buffer) {
+		if (!used || !SLOTS.containsKey(new Identity(buffer))) {
+			return buffer;
+		}
+		ByteBuffer c = ByteBuffer.allocate(buffer.remaining());
+		c.put(buffer.duplicate());
+		c.flip();
+		return c;
+	}
+
+	/**
+	 * Whether the buffers of the given allocator may come from a pool, then the sockets reading into them release them. Decided once per socket.
+	 */
+	static boolean pooled(ByteBufferAllocator allocator) {
+		if (allocator instanceof PooledByteBufferAllocator) {
+			return true;
+		}
+		if (allocator instanceof AdaptiveByteBufferAllocator) {
+			return ((AdaptiveByteBufferAllocator) allocator).pooled();
+		}
+		if (allocator instanceof AdaptiveByteBufferAllocator.Handle) {
+			return ((AdaptiveByteBufferAllocator.Handle) allocator).pooled();
+		}
+		return false;
+	}
+
+	private void free(Slot slot) {
+		inUse.decrementAndGet();
+		Deque<Slot> cache = threadCaches.get().free[slot.sizeClass];
+		cache.addFirst(slot);
+		if (cache.size() > THREAD_CACHE) {
+			// Give back half of the thread cache
+			Deque<Slot> s = shared[slot.sizeClass];
+			synchronized (s) {
+				while (cache.size() > (THREAD_CACHE / 2)) {
+					s.addFirst(cache.pollLast());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pooled buffers currently allocated and not released.
+	 */
+	public int inUse() {
+		return inUse.get();
+	}
+
+	private int sizeClass(int size) {
+		for (int i = 0; i < sizes.length; i++) {
+			if (size <= sizes[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private ByteBuffer unpooled(int size) {
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	private Slot grow(int sizeClass) {
+		int slotSize = sizes[sizeClass];
+		int slabSize = Math.max(slotSize, SLAB_SIZE - (SLAB_SIZE % slotSize));
+
+		synchronized (lock) {
+			if ((CAPACITY > 0L) && ((allocated + slabSize) > CAPACITY)) {
+				LOGGER.debug("Pool capacity reached ({} bytes), allocating unpooled buffer", allocated);
+				return null;
+			}
+			allocated += slabSize;
+
+			LOGGER.trace("New slab of {} bytes for {} bytes buffers", slabSize, slotSize);
+			used = true;
+			ByteBuffer slab = unpooled(slabSize);
+
+			Slot first = null;
+			Deque<Slot> s = shared[sizeClass];
+			for (int position = 0; position < slabSize; position += slotSize) {
+				slab.limit(position + slotSize);
+				slab.position(position);
+				Slot slot = new Slot(PooledByteBufferAllocator.this, slab.slice(), sizeClass);
+				SLOTS.put(new Identity(slot.buffer), slot);
+				if (first == null) {
+					first = slot;
+				} else {
+					synchronized (s) {
+						s.addLast(slot);
+					}
+				}
+			}
+			return first;
+		}
+	}
+
+	private void checkLeaks() {
+		double now = DateUtils.now();
+		synchronized (lock) {
+			if ((now - lastLeakCheck) < LEAK_AFTER) {
+				return;
+			}
+			lastLeakCheck = now;
+		}
+
+		for (Slot slot : SLOTS.values()) {
+			if (slot.pool != this) {
+				continue;
+			}
+			Throwable trace = slot.allocationTrace;
+			if ((trace != null) && (slot.references.get() > 0) && ((now - slot.allocationTimestamp) >= LEAK_AFTER)) {
+				slot.allocationTrace = null; // Reported only once
+				LOGGER.error("Buffer of {} bytes not released after {} seconds (leak?)", sizes[slot.sizeClass], LEAK_AFTER, trace);
+			}
+		}
+	}
+}
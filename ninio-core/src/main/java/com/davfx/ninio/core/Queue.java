@@ -7,4 +7,14 @@ import java.nio.channels.SelectionKey;
 public interface Queue {
 	void execute(Runnable command);
 	SelectionKey register(SelectableChannel channel) throws ClosedChannelException;
+	
+	/**
+	 * Runs the given task on the loop after the given delay (in seconds), with the granularity of {@code queue.timer.tick}.
+	 * Only to be called from the loop, as is {@link Scheduled#cancel()}.
+	 */
+	Scheduled schedule(double delay, Runnable task);
+	
+	static interface Scheduled {
+		void cancel();
+	}
 }
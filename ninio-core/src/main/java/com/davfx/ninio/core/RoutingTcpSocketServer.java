@@ -13,6 +13,21 @@ public final class RoutingTcpSocketServer {
 		void listen(ConnectingClosingFailing listening);
 	}
 
+	private static interface WritingConnection extends Connection, Writing {
+	}
+
+	// Stops reading from one side while the other side cannot keep up with writing
+	private static void suspendReading(Connected connected) {
+		if (connected instanceof Suspendable) {
+			((Suspendable) connected).suspendReading();
+		}
+	}
+	private static void resumeReading(Connected connected) {
+		if (connected instanceof Suspendable) {
+			((Suspendable) connected).resumeReading();
+		}
+	}
+
 	public static interface Builder extends NinioBuilder<RoutingListener> {
 		Builder serve(TcpSocketServer.Builder serverBuilder);
 		Builder to(TcpSocket.Builder clientBuilder);
@@ -70,14 +85,23 @@ public final class RoutingTcpSocketServer {
 									}
 								};
 								
-								connecter.connect(new Connection() {
+								connecter.connect(new WritingConnection() {
 									@Override
 									public void connected(Address address) {
 									}
 									
+									@Override
+									public void unwritable() {
+										suspendReading(connecting);
+									}
+									@Override
+									public void writable() {
+										resumeReading(connecting);
+									}
+									
 									@Override
 									public void received(Address address, ByteBuffer buffer) {
-										connecting.send(address, buffer, sendCallback);
+										connecting.send(address, PooledByteBufferAllocator.copyIfPooled(buffer), sendCallback); // Sent asynchronously
 									}
 									
 									@Override
@@ -92,14 +116,23 @@ public final class RoutingTcpSocketServer {
 									}
 								});
 
-								return new Connection() {
+								return new WritingConnection() {
 									@Override
 									public void connected(Address address) {
 									}
 									
+									@Override
+									public void unwritable() {
+										suspendReading(connecter);
+									}
+									@Override
+									public void writable() {
+										resumeReading(connecter);
+									}
+									
 									@Override
 									public void received(Address address, ByteBuffer buffer) {
-										connecter.send(address, buffer, sendCallback);
+										connecter.send(address, PooledByteBufferAllocator.copyIfPooled(buffer), sendCallback); // Sent asynchronously
 									}
 									
 									@Override
@@ -1,9 +1,13 @@
 package com.davfx.ninio.core;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.Executor;
 
 public final class SecureSocketBuilder implements TcpSocket.Builder {
+	private static interface SecureConnecter extends Connecter, FileSender {
+	}
+	
 	private Trust trust = new Trust();
 	private ByteBufferAllocator byteBufferAllocator = new DefaultByteBufferAllocator(SecureSocketManager.REQUIRED_BUFFER_SIZE);
 
@@ -11,6 +15,14 @@ public final class SecureSocketBuilder implements TcpSocket.Builder {
 	
 	private Address connectAddress = null;
 	
+	private boolean cork = false;
+	
+	private boolean resume = true;
+	
+	private Double idleTimeout = null; // Null to keep the default of the wrappee
+	private Double readTimeout = null;
+	private Double writeTimeout = null;
+	
 	private final TcpSocket.Builder wrappee;
 
 	public SecureSocketBuilder(TcpSocket.Builder wrappee) {
@@ -22,6 +34,14 @@ public final class SecureSocketBuilder implements TcpSocket.Builder {
 		return this;
 	}
 	
+	/**
+	 * Resumes the TLS sessions previously established by the {@link Trust} with the same address (default), instead of always doing full handshakes.
+	 */
+	public SecureSocketBuilder resume(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+	
 	@Deprecated
 	public SecureSocketBuilder with(Executor executor) {
 		return this;
@@ -45,18 +65,52 @@ public final class SecureSocketBuilder implements TcpSocket.Builder {
 		return this;
 	}
 
+	@Override
+	public SecureSocketBuilder cork(boolean cork) {
+		this.cork = cork;
+		return this;
+	}
+
+	@Override
+	public SecureSocketBuilder idleTimeout(double idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	@Override
+	public SecureSocketBuilder readTimeout(double readTimeout) {
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	@Override
+	public SecureSocketBuilder writeTimeout(double writeTimeout) {
+		this.writeTimeout = writeTimeout;
+		return this;
+	}
+
 	@Override
 	public Connecter create(NinioProvider ninioProvider) {
-		final Connecter connecter = wrappee
+		wrappee
 			.with(byteBufferAllocator)
 			.bind(bindAddress)
 			.to(connectAddress)
-			.create(ninioProvider);
+			.cork(cork);
+		if (idleTimeout != null) {
+			wrappee.idleTimeout(idleTimeout);
+		}
+		if (readTimeout != null) {
+			wrappee.readTimeout(readTimeout);
+		}
+		if (writeTimeout != null) {
+			wrappee.writeTimeout(writeTimeout);
+		}
+		final Connecter connecter = wrappee.create(ninioProvider);
 		
-		final SecureSocketManager sslManager = new SecureSocketManager(trust, true, ninioProvider.executor(), byteBufferAllocator);
+		final SecureSocketManager sslManager = new SecureSocketManager(trust, true, resume, ninioProvider.executor());
 		sslManager.prepare(connectAddress, connecter);
 
-		return new Connecter() {
+		return new SecureConnecter() {
 			@Override
 			public void close() {
 				sslManager.close();
@@ -67,6 +121,11 @@ public final class SecureSocketBuilder implements TcpSocket.Builder {
 				sslManager.send(address, buffer, callback);
 			}
 			
+			@Override
+			public void sendFile(FileChannel file, long position, long count, SendCallback callback) {
+				sslManager.sendFile(file, position, count, callback);
+			}
+			
 			@Override
 			public void connect(Connection callback) {
 				sslManager.prepare(callback);
@@ -2,8 +2,11 @@ package com.davfx.ninio.core;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 import javax.net.ssl.SSLEngine;
@@ -12,37 +15,87 @@ import javax.net.ssl.SSLEngineResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-final class SecureSocketManager implements Connected, Connection {
+/**
+ * Runs an {@link SSLEngine} between a connection and its underlying TCP connection.
+ * <p>
+ * The engine buffers are sized from the {@link javax.net.ssl.SSLSession} (grown if the session asks for more) and taken from a shared pool
+ * for the duration of a wrap or an unwrap only. The unwrapped bytes are given to {@link Connection#received(Address, ByteBuffer)} in the pooled buffer itself,
+ * released once it returns (see {@link PooledByteBufferAllocator} for its ownership). The wrapped bytes are copied out, in an exactly sized buffer,
+ * because the write queues do not release the buffers they are given: the queued plaintext writes are wrapped together, as many records as fit
+ * in the largest pooled buffer, so that it is one copy per batch of records. Received bytes are only copied when a TLS record spans several reads.
+ * Files are read, one record at a time, through a pooled buffer.
+ * <p>
+ * Client engines are created for their peer address, so that the sessions cached by the {@link Trust} can be resumed on reconnection.
+ */
+final class SecureSocketManager implements Connected, Connection, FileSender {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SecureSocketManager.class);
 
 	public static final int REQUIRED_BUFFER_SIZE = 17 * 1024;
 
+	private static final PooledByteBufferAllocator BUFFERS = new PooledByteBufferAllocator(REQUIRED_BUFFER_SIZE, false);
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
 	private final Trust trust;
 	private final boolean clientMode;
+	private final boolean resume;
 	private final Executor executor;
-	private final ByteBufferAllocator byteBufferAllocator;
 	
 	private Connected connecting = null;
 	private Connection callback = null;
 	private Address connectAddress;
+	private Address peerAddress = null;
 	
 	private static final class ToWrite {
-		public final ByteBuffer buffer;
+		public final ByteBuffer buffer; // null for a file
 		public final SendCallback callback;
+		public final FileChannel file;
+		public long position;
+		public long count;
 		public ToWrite(ByteBuffer buffer, SendCallback callback) {
 			this.buffer = buffer;
 			this.callback = callback;
+			file = null;
+		}
+		public ToWrite(FileChannel file, long position, long count, SendCallback callback) {
+			buffer = null;
+			this.callback = callback;
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
+	}
+	
+	private static final class BatchSendCallback implements SendCallback {
+		private final List<SendCallback> callbacks;
+		public BatchSendCallback(List<SendCallback> callbacks) {
+			this.callbacks = callbacks;
+		}
+		@Override
+		public void sent() {
+			for (SendCallback c : callbacks) {
+				c.sent();
+			}
+		}
+		@Override
+		public void failed(IOException e) {
+			for (SendCallback c : callbacks) {
+				c.failed(e);
+			}
 		}
 	}
 	
 	private Deque<ToWrite> sent = new LinkedList<>();
-	private Deque<ByteBuffer> received = new LinkedList<>();
+	private boolean receiving = true;
+	private ByteBuffer received = null; // Not fully unwrapped yet
+	private boolean receivedOwned = false; // Taken from the pool
 
 	private SSLEngine engine = null;
+	private int packetBufferSize = REQUIRED_BUFFER_SIZE;
+	private int applicationBufferSize = REQUIRED_BUFFER_SIZE;
 	
 	private boolean closed = false;
 	
-	public SecureSocketManager(Trust trust, boolean clientMode, Executor executor, ByteBufferAllocator byteBufferAllocator) {
+	public SecureSocketManager(Trust trust, boolean clientMode, boolean resume, Executor executor) {
 		if (executor == null) {
 			throw new NullPointerException("executor");
 		}
@@ -51,8 +104,8 @@ final class SecureSocketManager implements Connected, Connection {
 		}
 		this.trust = trust;
 		this.clientMode = clientMode;
+		this.resume = resume;
 		this.executor = executor;
-		this.byteBufferAllocator = byteBufferAllocator;
 	}
 	
 	private void fail(IOException ioe) {
@@ -65,108 +118,235 @@ final class SecureSocketManager implements Connected, Connection {
 		}
 	}
 	
+	private void updateBufferSizes() {
+		packetBufferSize = Math.max(packetBufferSize, engine.getSession().getPacketBufferSize());
+		applicationBufferSize = Math.max(applicationBufferSize, engine.getSession().getApplicationBufferSize());
+	}
+	
+	// Several records, still pooled
+	private int wrapBufferSize() {
+		return Math.max(packetBufferSize, (PooledByteBufferAllocator.MAX_SIZE / packetBufferSize) * packetBufferSize);
+	}
+	
+	private static ByteBuffer copy(ByteBuffer b) {
+		b.flip();
+		ByteBuffer c = ByteBuffer.allocate(b.remaining());
+		c.put(b);
+		c.flip();
+		return c;
+	}
+	
 	private boolean continueSend(boolean force) {
 		if (sent == null) {
 			return false;
 		}
-		if (sent.isEmpty()) {
-			if (!force) {
-				return false;
-			}
-			sent.addFirst(new ToWrite(ByteBuffer.allocate(0), new Nop()));
+		if (sent.isEmpty() && !force) {
+			return false;
 		}
 		
-		ToWrite toWrite = sent.getFirst();
-		ByteBuffer wrapBuffer = byteBufferAllocator.allocate();
-		SendCallback sendCallback = null;
+		ByteBuffer wrapBuffer = BUFFERS.allocate(wrapBufferSize());
+		List<SendCallback> sendCallbacks = new ArrayList<>(1);
+		boolean engineClosed = false;
 		try {
-			SSLEngineResult r = engine.wrap(toWrite.buffer, wrapBuffer);
-			if (!toWrite.buffer.hasRemaining()) {
-				sendCallback = toWrite.callback;
-			}
+			while (true) {
+				ToWrite toWrite = sent.peekFirst();
+				SSLEngineResult r;
+				boolean done;
+				if ((toWrite != null) && (toWrite.file != null)) {
+					if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+						r = wrapFile(toWrite, wrapBuffer);
+					} else {
+						r = engine.wrap(EMPTY, wrapBuffer);
+					}
+					done = (toWrite.count == 0L);
+				} else {
+					ByteBuffer b = (toWrite == null) ? EMPTY : toWrite.buffer;
+					r = engine.wrap(b, wrapBuffer);
+					done = !b.hasRemaining();
+				}
 
-			if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
-				throw new IOException("Buffer overflow, allocator should allocate bigger buffers");
-			}
-			
-			if (r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
-				throw new IOException("Buffer underflow should not happen");
+				if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					updateBufferSizes();
+					if (wrapBuffer.position() > 0) {
+						break;
+					}
+					if (wrapBuffer.limit() >= packetBufferSize) {
+						throw new IOException("Buffer overflow with an empty buffer of " + wrapBuffer.limit() + " bytes");
+					}
+					BUFFERS.release(wrapBuffer);
+					wrapBuffer = BUFFERS.allocate(wrapBufferSize());
+					continue;
+				}
+				
+				if (r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+					throw new IOException("Buffer underflow should not happen");
+				}
+				
+				engineClosed = (r.getStatus() == SSLEngineResult.Status.CLOSED);
+
+				if ((toWrite != null) && done) {
+					sent.removeFirst();
+					sendCallbacks.add(toWrite.callback);
+				}
+				
+				// Only application data is wrapped together, until the buffer is full
+				if ((r.getStatus() != SSLEngineResult.Status.OK) || (r.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) || sent.isEmpty()) {
+					break;
+				}
+				if (r.bytesConsumed() == 0) {
+					break;
+				}
+				if ((wrapBuffer.limit() - wrapBuffer.position()) < packetBufferSize) {
+					break;
+				}
 			}
 		} catch (IOException e) {
+			BUFFERS.release(wrapBuffer);
 			fail(e);
 			return false;
 		}
 
-		if (sendCallback == null) {
+		ByteBuffer toSend = copy(wrapBuffer);
+		BUFFERS.release(wrapBuffer);
+
+		SendCallback sendCallback;
+		if (sendCallbacks.isEmpty()) {
 			sendCallback = new Nop();
+		} else if (sendCallbacks.size() == 1) {
+			sendCallback = sendCallbacks.get(0);
 		} else {
-			sent.removeFirst();
+			sendCallback = new BatchSendCallback(sendCallbacks);
 		}
 			
-		wrapBuffer.flip();
-		if (wrapBuffer.hasRemaining()) {
+		if (toSend.hasRemaining()) {
 			if (!closed) {
-				connecting.send(null, wrapBuffer, sendCallback);
+				connecting.send(null, toSend, sendCallback);
+			}
+		} else {
+			sendCallback.sent();
+			if (engineClosed) {
+				return false;
 			}
 		}
 		
 		return true;
 	}
 	
+	private SSLEngineResult wrapFile(ToWrite toWrite, ByteBuffer wrapBuffer) throws IOException {
+		ByteBuffer chunk = BUFFERS.allocate((int) Math.min(toWrite.count, applicationBufferSize));
+		try {
+			while (chunk.hasRemaining()) {
+				int n = toWrite.file.read(chunk, toWrite.position + chunk.position());
+				if (n < 0) {
+					break;
+				}
+			}
+			chunk.flip();
+			if (!chunk.hasRemaining()) {
+				throw new IOException("File truncated, " + toWrite.count + " bytes missing");
+			}
+			SSLEngineResult r = engine.wrap(chunk, wrapBuffer);
+			toWrite.position += r.bytesConsumed();
+			toWrite.count -= r.bytesConsumed();
+			return r;
+		} finally {
+			BUFFERS.release(chunk);
+		}
+	}
+	
 	private boolean continueReceive(boolean force) {
-		if (received == null) {
+		if (!receiving) {
 			return false;
 		}
-		if (received.isEmpty()) {
-			if (!force) {
-				return false;
-			}
-			received.addFirst(ByteBuffer.allocate(0));
+		if ((received == null) && !force) {
+			return false;
 		}
 
 		boolean underflow = false;
 		
-		ByteBuffer b = received.getFirst();
-		ByteBuffer unwrapBuffer = byteBufferAllocator.allocate();
+		ByteBuffer b = (received == null) ? EMPTY : received;
+		ByteBuffer unwrapBuffer = BUFFERS.allocate(applicationBufferSize);
 		try {
 			SSLEngineResult r = engine.unwrap(b, unwrapBuffer);
-			if (!b.hasRemaining()) {
-				received.removeFirst();
-			}
 			
 			if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
-				throw new IOException("Buffer overflow, allocator should allocate bigger buffers");
+				updateBufferSizes();
+				if (unwrapBuffer.limit() >= applicationBufferSize) {
+					throw new IOException("Buffer overflow with an empty buffer of " + unwrapBuffer.limit() + " bytes");
+				}
+				// Retried with a bigger buffer
 			}
 
 			if (r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
-				if (received.size() <= 1) {
-					underflow = true;
-				} else {
-					ByteBuffer b0 = received.removeFirst();
-					ByteBuffer b1 = received.removeFirst();
-					ByteBuffer b01 = ByteBuffer.allocate(b0.remaining() + b1.remaining());
-					int l0 = b0.remaining();
-					int l1 = b1.remaining();
-					b0.get(b01.array(), 0, l0);
-					b1.get(b01.array(), l0, l1);
-					b01.limit(l0 + l1);
-					received.addFirst(b01);
-				}
+				// The record is not complete, waiting for more bytes
+				underflow = true;
+				updateBufferSizes();
+			}
+			
+			if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+				underflow = true;
 			}
 		} catch (IOException e) {
+			BUFFERS.release(unwrapBuffer);
 			fail(e);
 			return false;
 		}
 		
+		if ((received != null) && !received.hasRemaining()) {
+			releaseReceived();
+		}
+		
 		unwrapBuffer.flip();
-		if (unwrapBuffer.hasRemaining()) {
-			if (!closed) {
-				callback.received(null, unwrapBuffer);
+		try {
+			if (unwrapBuffer.hasRemaining()) {
+				if (!closed) {
+					callback.received(null, unwrapBuffer);
+				}
 			}
+		} finally {
+			BUFFERS.release(unwrapBuffer);
 		}
 		return !underflow;
 	}
 	
+	private void addReceived(ByteBuffer buffer) {
+		if (!buffer.hasRemaining()) {
+			PooledByteBufferAllocator.releaseBuffer(buffer);
+			return;
+		}
+		if (received == null) {
+			// Unwrapped in place
+			received = buffer;
+			receivedOwned = false;
+			return;
+		}
+		if (receivedOwned && ((received.capacity() - received.limit()) >= buffer.remaining())) {
+			int p = received.position();
+			received.position(received.limit());
+			received.limit(received.position() + buffer.remaining());
+			received.put(buffer);
+			received.position(p);
+			PooledByteBufferAllocator.releaseBuffer(buffer);
+			return;
+		}
+		// A record spans several reads
+		ByteBuffer r = BUFFERS.allocate(Math.max(packetBufferSize, received.remaining() + buffer.remaining()));
+		r.put(received);
+		r.put(buffer);
+		r.flip();
+		PooledByteBufferAllocator.releaseBuffer(buffer);
+		releaseReceived();
+		received = r;
+		receivedOwned = true;
+	}
+	
+	// Either taken from the pool, or the buffer given to received(), retained until unwrapped
+	private void releaseReceived() {
+		PooledByteBufferAllocator.releaseBuffer(received);
+		received = null;
+		receivedOwned = false;
+	}
+	
 	private void doContinue() {
 		if (closed || (connecting == null) || (callback == null) || (connectAddress == null)) {
 			// LOGGER.trace("Not prepared (clientMode = {})", clientMode);
@@ -175,12 +355,13 @@ final class SecureSocketManager implements Connected, Connection {
 		if (sent == null) {
 			return;
 		}
-		if (received == null) {
+		if (!receiving) {
 			return;
 		}
 
 		if (engine == null) {
-			engine = trust.createEngine(clientMode);
+			engine = (peerAddress == null) ? trust.createEngine(clientMode) : trust.createEngine(clientMode, peerAddress);
+			updateBufferSizes();
 			try {
 				engine.beginHandshake();
 			} catch (IOException e) {
@@ -237,7 +418,10 @@ final class SecureSocketManager implements Connected, Connection {
 		}
 
 		sent = null;
-		received = null;
+		receiving = false;
+		if (received != null) {
+			releaseReceived();
+		}
 		
 		if (engine != null) {
 			try {
@@ -258,13 +442,15 @@ final class SecureSocketManager implements Connected, Connection {
 	
 	@Override
 	public void received(Address address, final ByteBuffer buffer) {
+		PooledByteBufferAllocator.retainBuffer(buffer); // Used from the executor
 		executor.execute(new Runnable() {
 			@Override
 			public void run() {
-				if (received == null) {
+				if (!receiving) {
+					PooledByteBufferAllocator.releaseBuffer(buffer);
 					return;
 				}
-				received.addLast(buffer);
+				addReceived(buffer);
 				doContinue();
 			}
 		});
@@ -334,6 +520,24 @@ final class SecureSocketManager implements Connected, Connection {
 		});
 	}
 	
+	@Override
+	public void sendFile(final FileChannel file, final long position, final long count, final SendCallback callback) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (sent == null) {
+					return;
+				}
+				if (count == 0L) {
+					sent.addLast(new ToWrite(ByteBuffer.allocate(0), callback));
+				} else {
+					sent.addLast(new ToWrite(file, position, count, callback));
+				}
+				doContinue();
+			}
+		});
+	}
+	
 	//
 	
 	public void prepare(final Address address, final Connected connecting) {
@@ -342,6 +546,9 @@ final class SecureSocketManager implements Connected, Connection {
 			public void run() {
 				if (address != null) {
 					connectAddress = address;
+					if (clientMode && resume) {
+						peerAddress = address;
+					}
 				}
 				SecureSocketManager.this.connecting = connecting;
 				doContinue();
@@ -9,6 +9,15 @@ public final class SecureSocketServerBuilder implements TcpSocketServer.Builder
 
 	private Address bindAddress = null;
 	
+	private boolean cork = false;
+	private boolean reusePort = false;
+	private Integer maxConnections = null; // Null to keep the default of the wrappee
+	private Integer maxConnectionsPerAddress = null;
+	private Long writeBudget = null;
+	private Double idleTimeout = null;
+	private Double readTimeout = null;
+	private Double writeTimeout = null;
+	
 	private final TcpSocketServer.Builder wrappee;
 
 	public SecureSocketServerBuilder(TcpSocketServer.Builder wrappee) {
@@ -25,7 +34,6 @@ public final class SecureSocketServerBuilder implements TcpSocketServer.Builder
 		return this;
 	}
 
-	// Used for the SSL engine AND the underlying TcpSocketServer.Builder
 	@Override
 	public SecureSocketServerBuilder with(ByteBufferAllocator byteBufferAllocator) {
 		this.byteBufferAllocator = byteBufferAllocator;
@@ -38,12 +46,78 @@ public final class SecureSocketServerBuilder implements TcpSocketServer.Builder
 		return this;
 	}
 
+	@Override
+	public SecureSocketServerBuilder cork(boolean cork) {
+		this.cork = cork;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder reusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder maxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder maxConnectionsPerAddress(int maxConnectionsPerAddress) {
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder writeBudget(long writeBudget) {
+		this.writeBudget = writeBudget;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder idleTimeout(double idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder readTimeout(double readTimeout) {
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	@Override
+	public SecureSocketServerBuilder writeTimeout(double writeTimeout) {
+		this.writeTimeout = writeTimeout;
+		return this;
+	}
+
 	@Override
 	public Listener create(NinioProvider ninioProvider) {
 		final Trust thisTrust = trust;
 		final Executor thisExecutor = ninioProvider.executor();
-		final ByteBufferAllocator thisByteBufferAllocator = byteBufferAllocator;
-		final Listener listener = wrappee.with(byteBufferAllocator).bind(bindAddress).create(ninioProvider);
+		wrappee.with(byteBufferAllocator).bind(bindAddress).cork(cork).reusePort(reusePort);
+		if (maxConnections != null) {
+			wrappee.maxConnections(maxConnections);
+		}
+		if (maxConnectionsPerAddress != null) {
+			wrappee.maxConnectionsPerAddress(maxConnectionsPerAddress);
+		}
+		if (writeBudget != null) {
+			wrappee.writeBudget(writeBudget);
+		}
+		if (idleTimeout != null) {
+			wrappee.idleTimeout(idleTimeout);
+		}
+		if (readTimeout != null) {
+			wrappee.readTimeout(readTimeout);
+		}
+		if (writeTimeout != null) {
+			wrappee.writeTimeout(writeTimeout);
+		}
+		final Listener listener = wrappee.create(ninioProvider);
 		
 		return new Listener() {
 			@Override
@@ -67,7 +141,7 @@ public final class SecureSocketServerBuilder implements TcpSocketServer.Builder
 
 					@Override
 					public Connection connecting(Connected connecting) {
-						SecureSocketManager sslManager = new SecureSocketManager(thisTrust, false, thisExecutor, thisByteBufferAllocator);
+						SecureSocketManager sslManager = new SecureSocketManager(thisTrust, false, false, thisExecutor);
 						sslManager.prepare(null, connecting);
 						sslManager.prepare(callback.connecting(sslManager));
 						return sslManager;
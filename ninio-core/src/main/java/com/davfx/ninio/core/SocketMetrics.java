@@ -0,0 +1,88 @@
+package com.davfx.ninio.core;
+
+/**
+ * Traffic counters of a socket type (e.g. {@code udp.in.packets}), and of a single bound socket once {@link #bind(Address)} has been called
+ * (e.g. {@code udp.0.0.0.0-161.in.packets}). Only the socket queue binds and unbinds.
+ */
+final class SocketMetrics {
+	private static final class Counters {
+		public final Counter inPackets;
+		public final Counter inBytes;
+		public final Counter outPackets;
+		public final Counter outBytes;
+		public final Counter drops;
+		public final Histogram pending;
+
+		public Counters(Metrics metrics, String prefix) {
+			inPackets = metrics.counter(prefix + ".in.packets");
+			inBytes = metrics.counter(prefix + ".in.bytes");
+			outPackets = metrics.counter(prefix + ".out.packets");
+			outBytes = metrics.counter(prefix + ".out.bytes");
+			drops = metrics.counter(prefix + ".drops");
+			pending = metrics.histogram(prefix + ".write.pending");
+		}
+	}
+
+	private final String type;
+	private final Counters global;
+	private volatile Counters bound = null;
+	private String boundPrefix = null;
+
+	public SocketMetrics(String type) {
+		this.type = type;
+		global = new Counters(Metrics.global(), type);
+	}
+
+	public void bind(Address address) {
+		unbind();
+		boundPrefix = type + "." + Metrics.name(address);
+		bound = new Counters(Metrics.global(), boundPrefix);
+	}
+
+	public void unbind() {
+		if (boundPrefix != null) {
+			bound = null;
+			Metrics.global().remove(boundPrefix);
+			boundPrefix = null;
+		}
+	}
+
+	public void in(long bytes) {
+		global.inPackets.inc();
+		global.inBytes.add(bytes);
+		Counters b = bound;
+		if (b != null) {
+			b.inPackets.inc();
+			b.inBytes.add(bytes);
+		}
+	}
+
+	public void out(long bytes) {
+		global.outPackets.inc();
+		global.outBytes.add(bytes);
+		Counters b = bound;
+		if (b != null) {
+			b.outPackets.inc();
+			b.outBytes.add(bytes);
+		}
+	}
+
+	public void drop() {
+		global.drops.inc();
+		Counters b = bound;
+		if (b != null) {
+			b.drops.inc();
+		}
+	}
+
+	/**
+	 * Bytes waiting to be written, recorded after each send.
+	 */
+	public void pending(long bytes) {
+		global.pending.record(bytes);
+		Counters b = bound;
+		if (b != null) {
+			b.pending.record(bytes);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package com.davfx.ninio.core;
+
+/**
+ * Implemented by the {@link Connected} sockets that can stop reading, typically to throttle a peer while relaying to a slow {@link Writing} connection.
+ * Can be called from any thread.
+ */
+public interface Suspendable {
+	void suspendReading();
+	void resumeReading();
+}
@@ -4,80 +4,46 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.dependencies.Dependencies;
-import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
-import com.davfx.ninio.util.DateUtils;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueType;
 
-public final class TcpSocket implements Connecter {
+public final class TcpSocket implements Connecter, Suspendable, FileSender {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpSocket.class);
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpSocket.class.getPackage().getName());
 	private static final long WRITE_MAX_BUFFER_SIZE = CONFIG.getBytes("tcp.buffer.write").longValue();
-	private static final double SOCKET_TIMEOUT = ConfigUtils.getDuration(CONFIG, "tcp.socket.timeout");
 	private static final long SOCKET_WRITE_BUFFER_SIZE = CONFIG.getBytes("tcp.socket.write").longValue();
 	private static final long SOCKET_READ_BUFFER_SIZE = CONFIG.getBytes("tcp.socket.read").longValue();
+	private static final double IDLE_TIMEOUT = timeout(CONFIG, "tcp.socket.timeout", "idle");
+	private static final double READ_TIMEOUT = timeout(CONFIG, "tcp.socket.timeout", "read");
+	private static final double WRITE_TIMEOUT = timeout(CONFIG, "tcp.socket.timeout", "write");
 
-	private static final double SUPERVISION_DISPLAY = ConfigUtils.getDuration(CONFIG, "supervision.tcp.display");
-
-	private static final class Supervision {
-		private static double floorTime(double now, double period) {
-	    	double precision = 1000d;
-	    	long t = (long) (now * precision);
-	    	long d = (long) (period * precision);
-	    	return (t - (t % d)) / precision;
-		}
-		
-		private final AtomicLong max = new AtomicLong(0L);
-		
-		public Supervision() {
-			double now = DateUtils.now();
-			double startDisplay = SUPERVISION_DISPLAY - (now - floorTime(now, SUPERVISION_DISPLAY));
-			
-			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(TcpSocket.Supervision.class, true));
-
-			executor.scheduleAtFixedRate(new Runnable() {
-				@Override
-				public void run() {
-					long m = max.getAndSet(0L);
-					LOGGER.trace("[TCP Supervision] max = {} Kb", m / 1000d);
-				}
-			}, (long) (startDisplay * 1000d), (long) (SUPERVISION_DISPLAY * 1000d), TimeUnit.MILLISECONDS);
-		}
-		
-		public void setWriteMax(long newMax) {
-			while (true) {
-				long curMax = max.get();
-				if (curMax >= newMax) {
-					break;
-				}
-				if (max.compareAndSet(curMax, newMax)) {
-					break;
-				}
-			}
+	// Still accepts a single duration (the former format of these keys) as the idle timeout, the others being 0
+	static double timeout(Config config, String key, String kind) {
+		if (config.getValue(key).valueType() != ConfigValueType.OBJECT) {
+			return kind.equals("idle") ? ConfigUtils.getDuration(config, key) : 0d;
 		}
+		return ConfigUtils.getDuration(config, key + "." + kind);
 	}
-	
-	private static final Supervision SUPERVISION = (SUPERVISION_DISPLAY > 0d) ? new Supervision() : null;
-	
+
 	public static interface Builder extends NinioBuilder<Connecter> {
 		Builder with(ByteBufferAllocator byteBufferAllocator);
 		Builder bind(Address bindAddress);
 		Builder to(Address connectAddress);
+		Builder cork(boolean cork);
+		Builder idleTimeout(double idleTimeout); // In seconds, nothing read nor written, 0 = never
+		Builder readTimeout(double readTimeout); // In seconds, nothing read, 0 = never
+		Builder writeTimeout(double writeTimeout); // In seconds, pending writes not progressing, 0 = never
 	}
 
 	public static Builder builder() {
@@ -87,6 +53,12 @@ public final class TcpSocket implements Connecter {
 			private Address bindAddress = null;
 			private Address connectAddress = null;
 			
+			private boolean cork = false;
+			
+			private double idleTimeout = IDLE_TIMEOUT;
+			private double readTimeout = READ_TIMEOUT;
+			private double writeTimeout = WRITE_TIMEOUT;
+			
 			@Override
 			public Builder with(ByteBufferAllocator byteBufferAllocator) {
 				this.byteBufferAllocator = byteBufferAllocator;
@@ -105,27 +77,44 @@ public final class TcpSocket implements Connecter {
 				return this;
 			}
 			
+			@Override
+			public Builder cork(boolean cork) {
+				this.cork = cork;
+				return this;
+			}
+			
+			@Override
+			public Builder idleTimeout(double idleTimeout) {
+				this.idleTimeout = idleTimeout;
+				return this;
+			}
+			
+			@Override
+			public Builder readTimeout(double readTimeout) {
+				this.readTimeout = readTimeout;
+				return this;
+			}
+			
+			@Override
+			public Builder writeTimeout(double writeTimeout) {
+				this.writeTimeout = writeTimeout;
+				return this;
+			}
+			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
 				if (connectAddress == null) {
 					throw new NullPointerException("connectAddress");
 				}
-				return new TcpSocket(ninioProvider.queue(NinioPriority.REGULAR), byteBufferAllocator, bindAddress, connectAddress);
+				return new TcpSocket(ninioProvider.queue(NinioPriority.REGULAR), byteBufferAllocator, bindAddress, connectAddress, cork, idleTimeout, readTimeout, writeTimeout);
 			}
 		};
 	}
 	
-	private static final class ToWrite {
-		public final ByteBuffer buffer;
-		public final SendCallback callback;
-		public ToWrite(ByteBuffer buffer, SendCallback callback) {
-			this.buffer = buffer;
-			this.callback = callback;
-		}
-	}
-	
 	private final Queue queue;
 	private final ByteBufferAllocator byteBufferAllocator;
+	private final AdaptiveByteBufferAllocator.Handle readSizing;
+	private final boolean pooled; // Read buffers released once received
 	private final Address bindAddress;
 	private final Address connectAddress;
 	
@@ -133,17 +122,36 @@ public final class TcpSocket implements Connecter {
 	private SelectionKey currentInboundKey = null;
 	private SelectionKey currentSelectionKey = null;
 
-	private final Deque<ToWrite> toWriteQueue = new LinkedList<>();
-	private long toWriteLength = 0L;
+	private final TcpWriteQueue toWriteQueue;
+	private final ConnectionTimeouts timeouts;
+	
+	private ByteBuffer spareReadBuffer = null; // Kept for the next read when nothing was read into it
 	
+	private final SocketMetrics metrics = new SocketMetrics("tcp");
+
 	private Connection connectCallback = null;
 	private boolean closed = false;
+	private boolean readSuspended = false;
 
-	private TcpSocket(Queue queue, ByteBufferAllocator byteBufferAllocator, Address bindAddress, Address connectAddress) {
+	private TcpSocket(Queue queue, ByteBufferAllocator byteBufferAllocator, Address bindAddress, Address connectAddress, boolean cork, double idleTimeout, double readTimeout, double writeTimeout) {
 		this.queue = queue;
-		this.byteBufferAllocator = byteBufferAllocator;
+		if (byteBufferAllocator instanceof AdaptiveByteBufferAllocator) {
+			readSizing = ((AdaptiveByteBufferAllocator) byteBufferAllocator).handle();
+			this.byteBufferAllocator = readSizing;
+		} else {
+			readSizing = null;
+			this.byteBufferAllocator = byteBufferAllocator;
+		}
+		pooled = PooledByteBufferAllocator.pooled(byteBufferAllocator);
 		this.bindAddress = bindAddress;
 		this.connectAddress = connectAddress;
+		toWriteQueue = new TcpWriteQueue(cork, metrics);
+		timeouts = new ConnectionTimeouts(queue, idleTimeout, readTimeout, writeTimeout, toWriteQueue, new ConnectionTimeouts.Expired() {
+			@Override
+			public void expired(IOException reason) {
+				disconnect(currentChannel, currentInboundKey, currentSelectionKey, connectCallback, reason);
+			}
+		});
 	}
 	
 	@Override
@@ -161,11 +169,9 @@ public final class TcpSocket implements Connecter {
 					
 					final SocketChannel channel = SocketChannel.open();
 					currentChannel = channel;
+					toWriteQueue.writing((callback instanceof Writing) ? (Writing) callback : null);
 					try {
 						channel.configureBlocking(false);
-						if (SOCKET_TIMEOUT > 0d) {
-							channel.socket().setSoTimeout((int) (SOCKET_TIMEOUT * 1000d)); // Not working with NIO?
-						}
 						if (SOCKET_READ_BUFFER_SIZE > 0L) {
 							channel.socket().setReceiveBufferSize((int) SOCKET_READ_BUFFER_SIZE);
 						}
@@ -206,7 +212,10 @@ public final class TcpSocket implements Connecter {
 											
 											if (key.isReadable()) {
 												while (true) {
-													ByteBuffer readBuffer = byteBufferAllocator.allocate();
+													if (spareReadBuffer == null) {
+														spareReadBuffer = byteBufferAllocator.allocate();
+													}
+													ByteBuffer readBuffer = spareReadBuffer;
 													try {
 														int r = channel.read(readBuffer);
 														LOGGER.trace("Reading: {} bytes", r);
@@ -218,52 +227,35 @@ public final class TcpSocket implements Connecter {
 															disconnect(channel, inboundKey, selectionKey, callback, null);
 															return;
 														}
+														metrics.in(r);
+														timeouts.read();
+														if (readSizing != null) {
+															readSizing.read(r, readBuffer.limit());
+														}
 													} catch (IOException e) {
 														LOGGER.trace("Read failed", e);
 														disconnect(channel, inboundKey, selectionKey, callback, e);
 														return;
 													}
 	
+													spareReadBuffer = null;
 													readBuffer.flip();
 													callback.received(null, readBuffer);
+													if (pooled) {
+														PooledByteBufferAllocator.releaseBuffer(readBuffer);
+													}
 												}
 											} else if (key.isWritable()) {
-												while (true) {
-													ToWrite toWrite = toWriteQueue.peek();
-													if (toWrite == null) {
-														break;
-													}
-													
-													if (toWrite.buffer == null) {
-														try {
-															channel.close();
-														} catch (IOException e) {
-															LOGGER.trace("Graceful close failed", e);
-															toWrite.callback.failed(e);
-															disconnect(channel, inboundKey, selectionKey, callback, e);
-															return;
-														}
-													} else {
-														long size = toWrite.buffer.remaining();
-														
-														try {
-															LOGGER.trace("Actual write buffer: {} bytes", size);
-															channel.write(toWrite.buffer);
-															toWriteLength -= size - toWrite.buffer.remaining();
-														} catch (IOException e) {
-															LOGGER.trace("Write failed", e);
-															toWrite.callback.failed(e);
-															disconnect(channel, inboundKey, selectionKey, callback, e);
-															return;
-														}
-														
-														if (toWrite.buffer.hasRemaining()) {
-															return;
-														}
+												try {
+													boolean written = toWriteQueue.write(channel);
+													timeouts.wrote();
+													if (!written) {
+														return;
 													}
-													
-													toWriteQueue.remove();
-													toWrite.callback.sent();
+												} catch (IOException e) {
+													LOGGER.trace("Write failed", e);
+													disconnect(channel, inboundKey, selectionKey, callback, e);
+													return;
 												}
 												if (!channel.isOpen()) {
 													return;
@@ -276,10 +268,13 @@ public final class TcpSocket implements Connecter {
 										}
 									});
 				
-									selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+									if (!readSuspended) {
+										selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+									}
 									if (!toWriteQueue.isEmpty()) {
 										selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
 									}
+									timeouts.start();
 		
 								} catch (IOException e) {
 									LOGGER.trace("Connection failed", e);
@@ -338,6 +333,36 @@ public final class TcpSocket implements Connecter {
 		});
 	}
 	
+	@Override
+	public void suspendReading() {
+		queue.execute(new Runnable() {
+			@Override
+			public void run() {
+				readSuspended = true;
+				timeouts.suspended(true);
+				SelectionKey selectionKey = currentSelectionKey;
+				if ((selectionKey != null) && selectionKey.isValid()) {
+					selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void resumeReading() {
+		queue.execute(new Runnable() {
+			@Override
+			public void run() {
+				readSuspended = false;
+				timeouts.suspended(false);
+				SelectionKey selectionKey = currentSelectionKey;
+				if ((selectionKey != null) && selectionKey.isValid()) {
+					selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+	
 	@Override
 	public void send(final Address address, final ByteBuffer buffer, final SendCallback callback) {
 		queue.execute(new Runnable() {
@@ -353,41 +378,65 @@ public final class TcpSocket implements Connecter {
 				}
 				
 				if (buffer != null) {
-					if ((WRITE_MAX_BUFFER_SIZE > 0L) && (toWriteLength > WRITE_MAX_BUFFER_SIZE)) {
+					if ((WRITE_MAX_BUFFER_SIZE > 0L) && (toWriteQueue.length() > WRITE_MAX_BUFFER_SIZE)) {
 						LOGGER.warn("Dropping {} bytes that should have been sent to {}", buffer.remaining(), address);
+						metrics.drop();
 						callback.failed(new IOException("Packet dropped"));
 						return;
 					}
 				}
 				
-				toWriteQueue.add(new ToWrite(buffer, callback));
 				if (buffer != null) {
-					toWriteLength += buffer.remaining();
-					LOGGER.trace("Write buffer: {} bytes (current size: {} bytes)", buffer.remaining(), toWriteLength);
-				
-					if (SUPERVISION != null) {
-						SUPERVISION.setWriteMax(toWriteLength);
-					}
-				}
-				
-				SocketChannel channel = currentChannel;
-				SelectionKey selectionKey = currentSelectionKey;
-				if (channel == null) {
-					return;
+					LOGGER.trace("Write buffer: {} bytes (current size: {} bytes)", buffer.remaining(), toWriteQueue.length());
 				}
-				if (selectionKey == null) {
-					return;
-				}
-				if (!channel.isOpen()) {
-					return;
+				timeouts.writing();
+				toWriteQueue.add(buffer, callback);
+				if (buffer != null) {
+					metrics.pending(toWriteQueue.length());
 				}
-				if (!selectionKey.isValid()) {
+				
+				requestWrite();
+			}
+		});
+	}
+	
+	@Override
+	public void sendFile(final FileChannel file, final long position, final long count, final SendCallback callback) {
+		queue.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (closed) {
+					callback.failed(new IOException("Closed"));
 					return;
 				}
-				selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+
+				LOGGER.trace("Write file: {} bytes (current size: {} bytes)", count, toWriteQueue.length());
+				timeouts.writing();
+				toWriteQueue.add(file, position, count, callback);
+				metrics.pending(toWriteQueue.length());
+				
+				requestWrite();
 			}
 		});
 	}
+	
+	private void requestWrite() {
+		SocketChannel channel = currentChannel;
+		SelectionKey selectionKey = currentSelectionKey;
+		if (channel == null) {
+			return;
+		}
+		if (selectionKey == null) {
+			return;
+		}
+		if (!channel.isOpen()) {
+			return;
+		}
+		if (!selectionKey.isValid()) {
+			return;
+		}
+		selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+	}
 
 	private void disconnect(SocketChannel channel, SelectionKey inboundKey, SelectionKey selectionKey, Connection callback, IOException error) {
 		if (channel != null) {
@@ -407,11 +456,16 @@ public final class TcpSocket implements Connecter {
 			selectionKey.cancel();
 		}
 
-		IOException e = (error == null) ? new IOException("Closed") : new IOException("Closed because of", error);
-		for (ToWrite toWrite : toWriteQueue) {
-			toWrite.callback.failed(e);
+		timeouts.stop();
+		if (spareReadBuffer != null) {
+			if (pooled) {
+				PooledByteBufferAllocator.releaseBuffer(spareReadBuffer);
+			}
+			spareReadBuffer = null;
 		}
-		toWriteQueue.clear();
+
+		IOException e = (error == null) ? new IOException("Closed") : new IOException("Closed because of", error);
+		toWriteQueue.fail(e);
 
 		currentChannel = null;
 		currentInboundKey = null;
@@ -3,81 +3,85 @@ package com.davfx.ninio.core;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.dependencies.Dependencies;
-import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
-import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.Housekeeping;
 import com.typesafe.config.Config;
 
+/**
+ * Accepted connections are handed off to the loops of the {@link NinioPriority#REGULAR} group, one after the other, and stay on their loop.
+ * <p>
+ * With {@link Builder#reusePort(boolean)}, each loop of the group instead owns a listening socket bound to the same port with {@code SO_REUSEPORT},
+ * so that the kernel spreads the incoming connections over them, each connection staying on the loop that accepted it
+ * (requires Java 9+ and an OS supporting it, otherwise only one socket listens).
+ * <p>
+ * {@link Listening#closed()} is called once all the listening sockets are closed, the port being free again.
+ * <p>
+ * Admission control: the connections accepted beyond {@link Builder#maxConnections(int)}, or beyond {@link Builder#maxConnectionsPerAddress(int)}
+ * from the same IP, are closed at once ({@code tcpserver.rejected}). Accepting is paused while the pending writes of all the connections exceed
+ * {@link Builder#writeBudget(long)} ({@code tcpserver.accept.paused}), leaving the new connections in the backlog.
+ * The current counts are exported once bound (e.g. {@code tcpserver.0.0.0.0-8080.connections}).
+ * <p>
+ * The idle, read and write timeouts of each connection are checked by a timer of its own loop (see {@link Queue#schedule(double, Runnable)}).
+ */
 public final class TcpSocketServer implements Listener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpSocketServer.class);
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpSocketServer.class.getPackage().getName());
 	private static final long WRITE_MAX_BUFFER_SIZE = CONFIG.getBytes("tcp.buffer.write").longValue();
-	private static final double SOCKET_TIMEOUT = ConfigUtils.getDuration(CONFIG, "tcp.serversocket.timeout");
 	private static final long SOCKET_READ_BUFFER_SIZE = CONFIG.getBytes("tcp.serversocket.read").longValue();
-
-	private static final double SUPERVISION_DISPLAY = ConfigUtils.getDuration(CONFIG, "supervision.tcpserver.display");
-
-	private static final class Supervision {
-		private static double floorTime(double now, double period) {
-	    	double precision = 1000d;
-	    	long t = (long) (now * precision);
-	    	long d = (long) (period * precision);
-	    	return (t - (t % d)) / precision;
-		}
-		
-		private final AtomicLong max = new AtomicLong(0L);
-		
-		public Supervision() {
-			double now = DateUtils.now();
-			double startDisplay = SUPERVISION_DISPLAY - (now - floorTime(now, SUPERVISION_DISPLAY));
-			
-			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(TcpSocketServer.Supervision.class, true));
-
-			executor.scheduleAtFixedRate(new Runnable() {
-				@Override
-				public void run() {
-					long m = max.getAndSet(0L);
-					LOGGER.trace("[TCPSERVER Supervision] max = {} Kb", m / 1000d);
-				}
-			}, (long) (startDisplay * 1000d), (long) (SUPERVISION_DISPLAY * 1000d), TimeUnit.MILLISECONDS);
-		}
-		
-		public void setWriteMax(long newMax) {
-			while (true) {
-				long curMax = max.get();
-				if (curMax >= newMax) {
-					break;
-				}
-				if (max.compareAndSet(curMax, newMax)) {
-					break;
-				}
-			}
+	private static final int MAX_CONNECTIONS = CONFIG.getInt("tcp.serversocket.connections.max");
+	private static final int MAX_CONNECTIONS_PER_ADDRESS = CONFIG.getInt("tcp.serversocket.connections.address");
+	private static final long WRITE_BUDGET = CONFIG.getBytes("tcp.serversocket.write.budget").longValue();
+	private static final double ACCEPT_PAUSE = ConfigUtils.getDuration(CONFIG, "tcp.serversocket.accept.pause");
+	private static final double IDLE_TIMEOUT = TcpSocket.timeout(CONFIG, "tcp.serversocket.timeout", "idle");
+	private static final double READ_TIMEOUT = TcpSocket.timeout(CONFIG, "tcp.serversocket.timeout", "read");
+	private static final double WRITE_TIMEOUT = TcpSocket.timeout(CONFIG, "tcp.serversocket.timeout", "write");
+
+	private static final Counter REJECTED = Metrics.global().counter("tcpserver.rejected");
+	private static final Counter ACCEPT_PAUSED = Metrics.global().counter("tcpserver.accept.paused");
+
+	private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+	
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> reusePortOption() {
+		try {
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (Exception e) {
+			return null; // Before Java 9
 		}
 	}
-	
-	private static final Supervision SUPERVISION = (SUPERVISION_DISPLAY > 0d) ? new Supervision() : null;
-	
+
 	public static interface Builder extends NinioBuilder<Listener> {
 		Builder with(ByteBufferAllocator byteBufferAllocator);
 		Builder bind(Address bindAddress);
+		Builder cork(boolean cork);
+		Builder reusePort(boolean reusePort);
+		Builder maxConnections(int maxConnections); // 0 = no limit
+		Builder maxConnectionsPerAddress(int maxConnectionsPerAddress); // By client IP, 0 = no limit
+		Builder writeBudget(long writeBudget); // In bytes, 0 = never pause accepting
+		Builder idleTimeout(double idleTimeout); // In seconds, nothing read nor written, 0 = never
+		Builder readTimeout(double readTimeout); // In seconds, nothing read, 0 = never
+		Builder writeTimeout(double writeTimeout); // In seconds, pending writes not progressing, 0 = never
 	}
 
 	public static Builder builder() {
@@ -86,11 +90,68 @@ public final class TcpSocketServer implements Listener {
 			
 			private Address bindAddress = null;
 			
+			private boolean cork = false;
+			private boolean reusePort = false;
+			private int maxConnections = MAX_CONNECTIONS;
+			private int maxConnectionsPerAddress = MAX_CONNECTIONS_PER_ADDRESS;
+			private long writeBudget = WRITE_BUDGET;
+			private double idleTimeout = IDLE_TIMEOUT;
+			private double readTimeout = READ_TIMEOUT;
+			private double writeTimeout = WRITE_TIMEOUT;
+			
 			@Override
 			public Builder bind(Address bindAddress) {
 				this.bindAddress = bindAddress;
 				return this;
 			}
+			
+			@Override
+			public Builder cork(boolean cork) {
+				this.cork = cork;
+				return this;
+			}
+
+			@Override
+			public Builder reusePort(boolean reusePort) {
+				this.reusePort = reusePort;
+				return this;
+			}
+
+			@Override
+			public Builder maxConnections(int maxConnections) {
+				this.maxConnections = maxConnections;
+				return this;
+			}
+
+			@Override
+			public Builder maxConnectionsPerAddress(int maxConnectionsPerAddress) {
+				this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+				return this;
+			}
+
+			@Override
+			public Builder writeBudget(long writeBudget) {
+				this.writeBudget = writeBudget;
+				return this;
+			}
+
+			@Override
+			public Builder idleTimeout(double idleTimeout) {
+				this.idleTimeout = idleTimeout;
+				return this;
+			}
+
+			@Override
+			public Builder readTimeout(double readTimeout) {
+				this.readTimeout = readTimeout;
+				return this;
+			}
+
+			@Override
+			public Builder writeTimeout(double writeTimeout) {
+				this.writeTimeout = writeTimeout;
+				return this;
+			}
 
 			@Override
 			public Builder with(ByteBufferAllocator byteBufferAllocator) {
@@ -104,57 +165,102 @@ public final class TcpSocketServer implements Listener {
 					throw new NullPointerException("bindAddress");
 				}
 				
-				return new TcpSocketServer(ninioProvider.queue(NinioPriority.REGULAR), byteBufferAllocator, bindAddress);
+				int acceptors = 1;
+				if (reusePort) {
+					if (SO_REUSEPORT == null) {
+						LOGGER.warn("SO_REUSEPORT not available, only one socket listening on: {}", bindAddress);
+					} else {
+						acceptors = ninioProvider.loops(NinioPriority.REGULAR);
+					}
+				}
+				return new TcpSocketServer(ninioProvider, acceptors, byteBufferAllocator, bindAddress, cork, new Admission(maxConnections, maxConnectionsPerAddress), writeBudget, idleTimeout, readTimeout, writeTimeout);
 			}
 		};
 	}
 	
-	private static final class ToWrite {
-		public final ByteBuffer buffer;
-		public final SendCallback callback;
-		public ToWrite(ByteBuffer buffer, SendCallback callback) {
-			this.buffer = buffer;
-			this.callback = callback;
-		}
-	}
-
-	private final Set<InnerSocketContext> outboundChannels = new HashSet<>();
+	// Accessed from the loops of all the connections
+	private final Set<InnerSocketContext> outboundChannels = Collections.newSetFromMap(new ConcurrentHashMap<InnerSocketContext, Boolean>());
 	
-	private final Queue queue;
+	private final NinioProvider ninioProvider;
 	private final ByteBufferAllocator byteBufferAllocator;
 	private final Address bindAddress;
+	private final boolean cork;
 	
-	private ServerSocketChannel currentServerChannel = null;
-	private SelectionKey currentAcceptSelectionKey = null;
+	private final SocketMetrics metrics = new SocketMetrics("tcpserver");
 	
-	private boolean closed = false;
-	private Listening listenCallback = null;
-
-	private TcpSocketServer(Queue queue, ByteBufferAllocator byteBufferAllocator, Address bindAddress) {
-		this.queue = queue;
+	private final Admission admission;
+	private final long writeBudget;
+	private final AtomicLong pendingWrites = new AtomicLong(0L); // Of all the connections
+	
+	private final double idleTimeout;
+	private final double readTimeout;
+	private final double writeTimeout;
+	
+	// One listening socket per acceptor, each only accessed from its queue
+	private final Queue[] queues;
+	private final ServerSocketChannel[] currentServerChannels;
+	private final SelectionKey[] currentAcceptSelectionKeys;
+	
+	private final AtomicBoolean listening = new AtomicBoolean(false);
+	private final AtomicInteger bound = new AtomicInteger(0);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile Listening listenCallback = null;
+
+	private TcpSocketServer(NinioProvider ninioProvider, int acceptors, ByteBufferAllocator byteBufferAllocator, Address bindAddress, boolean cork, Admission admission, long writeBudget, double idleTimeout, double readTimeout, double writeTimeout) {
+		this.ninioProvider = ninioProvider;
+		this.admission = admission;
+		this.writeBudget = writeBudget;
+		this.idleTimeout = idleTimeout;
+		this.readTimeout = readTimeout;
+		this.writeTimeout = writeTimeout;
 		this.byteBufferAllocator = byteBufferAllocator;
 		this.bindAddress = bindAddress;
+		this.cork = cork;
+		queues = new Queue[acceptors];
+		if (acceptors == 1) {
+			queues[0] = ninioProvider.queue(NinioPriority.REGULAR);
+		} else {
+			// One distinct loop per listening socket
+			for (int i = 0; i < acceptors; i++) {
+				queues[i] = ninioProvider.queue(NinioPriority.REGULAR, i);
+			}
+		}
+		currentServerChannels = new ServerSocketChannel[acceptors];
+		currentAcceptSelectionKeys = new SelectionKey[acceptors];
+	}
+	
+	// Number of listening sockets bound
+	int bound() {
+		return bound.get();
 	}
 	
 	@Override
 	public void listen(final Listening callback) {
+		if (!listening.compareAndSet(false, true)) {
+			throw new IllegalStateException("listen() cannot be called twice");
+		}
+		listenCallback = callback;
+		for (int i = 0; i < queues.length; i++) {
+			listen(i, callback);
+		}
+	}
+	
+	private void listen(final int acceptor, final Listening callback) {
+		final Queue queue = queues[acceptor];
 		queue.execute(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					if (closed) {
+					if (closed.get()) {
 						throw new IOException("Closed");
 					}
-					if (currentServerChannel != null) {
-						throw new IllegalStateException("listen() cannot be called twice");
-					}
 
 					final ServerSocketChannel serverChannel = ServerSocketChannel.open();
-					currentServerChannel = serverChannel;
+					currentServerChannels[acceptor] = serverChannel;
 					try {
 						serverChannel.configureBlocking(false);
-						if (SOCKET_TIMEOUT > 0d) {
-							serverChannel.socket().setSoTimeout((int) (SOCKET_TIMEOUT * 1000d)); // Not working with NIO?
+						if (queues.length > 1) {
+							serverChannel.setOption(SO_REUSEPORT, true);
 						}
 						if (SOCKET_READ_BUFFER_SIZE > 0L) {
 							serverChannel.socket().setReceiveBufferSize((int) SOCKET_READ_BUFFER_SIZE);
@@ -163,13 +269,13 @@ public final class TcpSocketServer implements Listener {
 						LOGGER.debug("-> Server channel ready to accept on: {}", bindAddress);
 
 						final SelectionKey acceptSelectionKey = queue.register(serverChannel);
-						currentAcceptSelectionKey = acceptSelectionKey;
+						currentAcceptSelectionKeys[acceptor] = acceptSelectionKey;
 						
 						acceptSelectionKey.attach(new SelectionKeyVisitor() {
 							@Override
 							public void visit(SelectionKey key) {
-								if (closed) {
-									disconnect(serverChannel, acceptSelectionKey, callback, null);
+								if (closed.get()) {
+									disconnect(acceptor);
 									return;
 								}
 								
@@ -177,20 +283,70 @@ public final class TcpSocketServer implements Listener {
 									return;
 								}
 								
+								if ((writeBudget > 0L) && (pendingWrites.get() > writeBudget)) {
+									pauseAccepting(acceptor);
+									return;
+								}
+								
 								ServerSocketChannel ssc = (ServerSocketChannel) key.channel();
 								try {
 									LOGGER.debug("-> Accepting client on: {}", bindAddress);
 									final SocketChannel outboundChannel = ssc.accept();
-
-									final InnerSocketContext context = new InnerSocketContext(outboundChannels);
-									context.currentChannel = outboundChannel;
+									if (outboundChannel == null) {
+										return;
+									}
 
 									final Address clientAddress = new Address(outboundChannel.socket().getInetAddress().getAddress(), outboundChannel.socket().getPort());
+									final Address clientIp = new Address(clientAddress.ip, 0);
+									if (!admission.admit(clientIp)) {
+										LOGGER.debug("Connection rejected from: {}", clientAddress);
+										REJECTED.inc();
+										try {
+											outboundChannel.close();
+										} catch (IOException e) {
+										}
+										return;
+									}
 
-									final Connection connection = callback.connecting(new Connected() {
+									// The connection lives on the next loop of the group, or on the loop of its listening socket with SO_REUSEPORT
+									final Queue connectionQueue = (queues.length == 1) ? ninioProvider.queue(NinioPriority.REGULAR) : queue;
+									final InnerSocketContext context = new InnerSocketContext(connectionQueue, outboundChannels, admission, clientIp, cork, byteBufferAllocator, metrics, pendingWrites, idleTimeout, readTimeout, writeTimeout);
+									context.currentChannel = outboundChannel;
+
+									final Connection connection = callback.connecting(new InnerConnected() {
+										@Override
+										public void suspendReading() {
+											context.queue.execute(new Runnable() {
+												@Override
+												public void run() {
+													context.readSuspended = true;
+													context.timeouts.suspended(true);
+													SelectionKey selectionKey = context.currentSelectionKey;
+													if ((selectionKey != null) && selectionKey.isValid()) {
+														selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+													}
+												}
+											});
+										}
+										
+										@Override
+										public void resumeReading() {
+											context.queue.execute(new Runnable() {
+												@Override
+												public void run() {
+													context.readSuspended = false;
+													context.timeouts.suspended(false);
+													SelectionKey selectionKey = context.currentSelectionKey;
+													if ((selectionKey != null) && selectionKey.isValid()) {
+														selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+													}
+												}
+											});
+										}
+										
 										@Override
 										public void close() {
-											queue.execute(new Runnable() {
+											context.queue.execute(new Runnable() {
 												@Override
 												public void run() {
 													context.disconnectAndRemove(null);
@@ -200,7 +356,7 @@ public final class TcpSocketServer implements Listener {
 										
 										@Override
 										public void send(final Address address, final ByteBuffer buffer, final SendCallback callback) {
-											queue.execute(new Runnable() {
+											context.queue.execute(new Runnable() {
 												@Override
 												public void run() {
 													if (context.closed) {
@@ -213,63 +369,69 @@ public final class TcpSocketServer implements Listener {
 													}
 													
 													if (buffer != null) {
-														if ((WRITE_MAX_BUFFER_SIZE > 0L) && (context.toWriteLength > WRITE_MAX_BUFFER_SIZE)) {
+														if ((WRITE_MAX_BUFFER_SIZE > 0L) && (context.toWriteQueue.length() > WRITE_MAX_BUFFER_SIZE)) {
 															LOGGER.warn("Dropping {} bytes that should have been sent to {}", buffer.remaining(), address);
+															metrics.drop();
 															callback.failed(new IOException("Packet dropped"));
 															return;
 														}
 													}
-													
-													context.toWriteQueue.add(new ToWrite(buffer, callback));
-													if (buffer != null) {
-														context.toWriteLength += buffer.remaining();
-														LOGGER.trace("Write buffer: {} bytes (current size: {} bytes)", buffer.remaining(), context.toWriteLength);
 														
-														if (SUPERVISION != null) {
-															SUPERVISION.setWriteMax(context.toWriteLength);
-														}
-													}
-													
-													SocketChannel channel = context.currentChannel;
-													SelectionKey selectionKey = context.currentSelectionKey;
-													if (channel == null) {
-														return;
-													}
-													if (selectionKey == null) {
-														return;
+													if (buffer != null) {
+														LOGGER.trace("Write buffer: {} bytes (current size: {} bytes)", buffer.remaining(), context.toWriteQueue.length());
 													}
-													if (!channel.isOpen()) {
-														return;
+													context.timeouts.writing();
+													context.toWriteQueue.add(buffer, callback);
+													if (buffer != null) {
+														metrics.pending(context.toWriteQueue.length());
 													}
-													if (!selectionKey.isValid()) {
+													
+													context.requestWrite();
+												}
+											});
+										}
+										
+										@Override
+										public void sendFile(final FileChannel file, final long position, final long count, final SendCallback callback) {
+											context.queue.execute(new Runnable() {
+												@Override
+												public void run() {
+													if (context.closed) {
+														callback.failed(new IOException("Closed"));
 														return;
 													}
-													selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+
+													LOGGER.trace("Write file: {} bytes (current size: {} bytes)", count, context.toWriteQueue.length());
+													context.timeouts.writing();
+													context.toWriteQueue.add(file, position, count, callback);
+													metrics.pending(context.toWriteQueue.length());
+													
+													context.requestWrite();
 												}
 											});
 										}
 									});
+									context.toWriteQueue.writing((connection instanceof Writing) ? (Writing) connection : null);
 
-									queue.execute(new Runnable() {
+									context.queue.execute(new Runnable() {
 										@Override
 										public void run() {
 											//%% LOGGER.debug("Connecting server-side TCP socket");
 											try {
-												if (closed) {
+												if (closed.get()) {
 													throw new IOException("Closed");
 												}
 												
 												try {
-													// outboundChannel.socket().setSoTimeout((int) (TIMEOUT * 1000d)); // Not working with NIO
 													outboundChannel.configureBlocking(false);
 
-													final SelectionKey selectionKey = queue.register(outboundChannel);
+													final SelectionKey selectionKey = context.queue.register(outboundChannel);
 													context.currentSelectionKey = selectionKey;
 
 													selectionKey.attach(new SelectionKeyVisitor() {
 														@Override
 														public void visit(SelectionKey key) {
-															if (closed) {
+															if (closed.get()) {
 																context.disconnectAndRemove(null);
 																return;
 															}
@@ -279,7 +441,10 @@ public final class TcpSocketServer implements Listener {
 															}
 															if (key.isReadable()) {
 																while (true) {
-																	final ByteBuffer readBuffer = byteBufferAllocator.allocate();
+																	if (context.spareReadBuffer == null) {
+																		context.spareReadBuffer = context.readAllocator.allocate();
+																	}
+																	ByteBuffer readBuffer = context.spareReadBuffer;
 																	try {
 																		int r = outboundChannel.read(readBuffer);
 																		if (r == 0) {
@@ -290,51 +455,35 @@ public final class TcpSocketServer implements Listener {
 																			context.disconnectAndRemove(null);
 																			return;
 																		}
+																		metrics.in(r);
+																		context.timeouts.read();
+																		if (context.readSizing != null) {
+																			context.readSizing.read(r, readBuffer.limit());
+																		}
 																	} catch (IOException e) {
 																		LOGGER.trace("Connection failed", e);
 																		context.disconnectAndRemove(e);
 																		return;
 																	}
 																	
+																	context.spareReadBuffer = null;
 																	readBuffer.flip();
 																	connection.received(null, readBuffer);
+																	if (context.pooled) {
+																		PooledByteBufferAllocator.releaseBuffer(readBuffer);
+																	}
 																}
 															} else if (key.isWritable()) {
-																while (true) {
-																	ToWrite toWrite = context.toWriteQueue.peek();
-																	if (toWrite == null) {
-																		break;
-																	}
-
-																	if (toWrite.buffer == null) {
-																		try {
-																			outboundChannel.close();
-																		} catch (IOException e) {
-																			LOGGER.trace("Graceful close failed", e);
-																			toWrite.callback.failed(e);
-																			context.disconnectAndRemove(e);
-																			return;
-																		}
-																	} else {
-																		long size = toWrite.buffer.remaining();
-	
-																		try {
-																			outboundChannel.write(toWrite.buffer);
-																			context.toWriteLength -= size - toWrite.buffer.remaining();
-																		} catch (IOException e) {
-																			LOGGER.trace("Write failed", e);
-																			toWrite.callback.failed(e);
-																			context.disconnectAndRemove(e);
-																			return;
-																		}
-																		
-																		if (toWrite.buffer.hasRemaining()) {
-																			return;
-																		}
+																try {
+																	boolean written = context.toWriteQueue.write(outboundChannel);
+																	context.timeouts.wrote();
+																	if (!written) {
+																		return;
 																	}
-																	
-																	toWrite.callback.sent();
-																	context.toWriteQueue.remove();
+																} catch (IOException e) {
+																	LOGGER.trace("Write failed", e);
+																	context.disconnectAndRemove(e);
+																	return;
 																}
 																if (!outboundChannel.isOpen()) {
 																	return;
@@ -347,10 +496,13 @@ public final class TcpSocketServer implements Listener {
 														}
 													});
 								
-													selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+													if (!context.readSuspended) {
+														selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+													}
 													if (!context.toWriteQueue.isEmpty()) {
 														selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
 													}
+													context.timeouts.start();
 
 												} catch (IOException e) {
 													LOGGER.trace("Connection failed", e);
@@ -369,8 +521,8 @@ public final class TcpSocketServer implements Listener {
 										}
 									});
 								} catch (IOException e) {
-									disconnect(serverChannel, acceptSelectionKey, callback, e);
 									LOGGER.error("Error while accepting on: {}", bindAddress, e);
+									closeAll(e, callback);
 								}
 							}
 						});
@@ -381,45 +533,138 @@ public final class TcpSocketServer implements Listener {
 							serverChannel.socket().bind(a);
 							acceptSelectionKey.interestOps(acceptSelectionKey.interestOps() | SelectionKey.OP_ACCEPT);
 						} catch (IOException e) {
-							disconnect(serverChannel, acceptSelectionKey, null, e);
 							throw new IOException("Could not bind to: " + bindAddress, e);
 						}
-
-						listenCallback = callback;
 					} catch (IOException e) {
-						disconnect(serverChannel, null, null, e);
 						LOGGER.error("Error while creating server socket on: {}", bindAddress, e);
-						callback.failed(e);
+						if (closeAll(e)) {
+							callback.failed(e);
+						}
 						return;
 					}
 				} catch (IOException ee) {
 					LOGGER.error("Error while creating server socket on: {}", bindAddress, ee);
-					callback.failed(ee);
+					if (closeAll(ee)) {
+						callback.failed(ee);
+					}
 					return;
 				}
 
-				callback.connected(null);
+				if (bound.incrementAndGet() == queues.length) {
+					metrics.bind(bindAddress);
+					String prefix = "tcpserver." + Metrics.name(bindAddress);
+					Metrics.global().gauge(prefix + ".connections", new Gauge() {
+						@Override
+						public long get() {
+							return admission.connections();
+						}
+					});
+					Metrics.global().gauge(prefix + ".addresses", new Gauge() {
+						@Override
+						public long get() {
+							return admission.addresses();
+						}
+					});
+					Metrics.global().gauge(prefix + ".write.budget.pending", new Gauge() {
+						@Override
+						public long get() {
+							return pendingWrites.get();
+						}
+					});
+					callback.connected(null);
+				}
 			}
 		});
 	}
 	
 	@Override
 	public void close() {
-		queue.execute(new Runnable() {
+		queues[0].execute(new Runnable() {
 			@Override
 			public void run() {
-				disconnect(currentServerChannel, currentAcceptSelectionKey, listenCallback, null);
+				closeAll(null, listenCallback);
 			}
 		});
 	}
 	
-	private void disconnect(ServerSocketChannel serverChannel, SelectionKey acceptSelectionKey, Listening callback, IOException error) {
-		for (InnerSocketContext context : outboundChannels) {
-			LOGGER.debug("Closing outbound channel");
-			context.disconnect(error);
+	/**
+	 * Closes the connections and the listening sockets, each from its own queue. Returns false if already closed.
+	 */
+	private boolean closeAll(IOException error) {
+		return closeAll(error, null);
+	}
+
+	/**
+	 * Also calls {@link Listening#closed()} once all the listening sockets are closed.
+	 */
+	private boolean closeAll(final IOException error, final Listening callback) {
+		if (!closed.compareAndSet(false, true)) {
+			return false;
+		}
+
+		for (final InnerSocketContext context : outboundChannels) {
+			context.remove();
+			context.queue.execute(new Runnable() {
+				@Override
+				public void run() {
+					LOGGER.debug("Closing outbound channel");
+					context.disconnect(error);
+				}
+			});
 		}
-		outboundChannels.clear();
 
+		final AtomicInteger remaining = new AtomicInteger(queues.length);
+		for (int i = 0; i < queues.length; i++) {
+			final int acceptor = i;
+			queues[i].execute(new Runnable() {
+				@Override
+				public void run() {
+					disconnect(acceptor);
+					if ((remaining.decrementAndGet() == 0) && (callback != null)) {
+						callback.closed();
+					}
+				}
+			});
+		}
+		
+		metrics.unbind();
+		return true;
+	}
+	
+	// Called from the acceptor queue
+	private void pauseAccepting(final int acceptor) {
+		SelectionKey acceptSelectionKey = currentAcceptSelectionKeys[acceptor];
+		if ((acceptSelectionKey == null) || !acceptSelectionKey.isValid()) {
+			return;
+		}
+		LOGGER.debug("Accepting paused on: {} ({} bytes pending)", bindAddress, pendingWrites.get());
+		ACCEPT_PAUSED.inc();
+		acceptSelectionKey.interestOps(acceptSelectionKey.interestOps() & ~SelectionKey.OP_ACCEPT);
+		Housekeeping.schedule(new Runnable() {
+			@Override
+			public void run() {
+				queues[acceptor].execute(new Runnable() {
+					@Override
+					public void run() {
+						SelectionKey acceptSelectionKey = currentAcceptSelectionKeys[acceptor];
+						if (closed.get() || (acceptSelectionKey == null) || !acceptSelectionKey.isValid()) {
+							return;
+						}
+						if (pendingWrites.get() > writeBudget) {
+							pauseAccepting(acceptor);
+							return;
+						}
+						LOGGER.debug("Accepting resumed on: {}", bindAddress);
+						acceptSelectionKey.interestOps(acceptSelectionKey.interestOps() | SelectionKey.OP_ACCEPT);
+					}
+				});
+			}
+		}, ACCEPT_PAUSE);
+	}
+	
+	private void disconnect(int acceptor) {
+		ServerSocketChannel serverChannel = currentServerChannels[acceptor];
+		SelectionKey acceptSelectionKey = currentAcceptSelectionKeys[acceptor];
 		if (serverChannel != null) {
 			try {
 				serverChannel.close();
@@ -431,44 +676,135 @@ public final class TcpSocketServer implements Listener {
 			acceptSelectionKey.cancel();
 		}
 		
-		currentServerChannel = null;
-		currentAcceptSelectionKey = null;
+		currentServerChannels[acceptor] = null;
+		currentAcceptSelectionKeys[acceptor] = null;
+	}
+
+	private static interface InnerConnected extends Connected, Suspendable, FileSender {
+	}
+
+	private static final class Admission {
+		private final int maxConnections;
+		private final int maxConnectionsPerAddress;
+		private int connections = 0;
+		private final Map<Address, Integer> connectionsByAddress = new HashMap<>();
+		
+		public Admission(int maxConnections, int maxConnectionsPerAddress) {
+			this.maxConnections = maxConnections;
+			this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+		}
 		
-		if (!closed) {
-			closed = true;
-	
-			if (callback != null) {
-				callback.closed();
+		public synchronized boolean admit(Address ip) {
+			if ((maxConnections > 0) && (connections >= maxConnections)) {
+				return false;
+			}
+			Integer c = connectionsByAddress.get(ip);
+			int n = (c == null) ? 0 : c;
+			if ((maxConnectionsPerAddress > 0) && (n >= maxConnectionsPerAddress)) {
+				return false;
 			}
+			connections++;
+			connectionsByAddress.put(ip, n + 1);
+			return true;
+		}
+		
+		public synchronized void release(Address ip) {
+			connections--;
+			Integer c = connectionsByAddress.get(ip);
+			if ((c == null) || (c <= 1)) {
+				connectionsByAddress.remove(ip);
+			} else {
+				connectionsByAddress.put(ip, c - 1);
+			}
+		}
+		
+		public synchronized int connections() {
+			return connections;
+		}
+		
+		public synchronized int addresses() {
+			return connectionsByAddress.size();
 		}
 	}
 
 	private static final class InnerSocketContext {
+		final Queue queue;
 		final Set<InnerSocketContext> outboundChannels;
+		final Admission admission;
+		final Address clientIp;
 		
 		SocketChannel currentChannel = null;
 		SelectionKey currentSelectionKey = null;
 		Connection connection = null;
 
-		final Deque<ToWrite> toWriteQueue = new LinkedList<>();
-		long toWriteLength = 0L;
-		
+		final TcpWriteQueue toWriteQueue;
+		final ConnectionTimeouts timeouts;
+
+		final ByteBufferAllocator readAllocator;
+		final AdaptiveByteBufferAllocator.Handle readSizing;
+		final boolean pooled; // Read buffers released once received
+		ByteBuffer spareReadBuffer = null; // Kept for the next read when nothing was read into it
+
 		boolean closed = false;
+		boolean readSuspended = false;
 		
-		public InnerSocketContext(Set<InnerSocketContext> outboundChannels) {
+		public InnerSocketContext(Queue queue, Set<InnerSocketContext> outboundChannels, Admission admission, Address clientIp, boolean cork, ByteBufferAllocator byteBufferAllocator, SocketMetrics metrics, AtomicLong pendingWrites, double idleTimeout, double readTimeout, double writeTimeout) {
+			this.queue = queue;
 			this.outboundChannels = outboundChannels;
+			this.admission = admission;
+			this.clientIp = clientIp;
+			toWriteQueue = new TcpWriteQueue(cork, metrics, pendingWrites);
+			timeouts = new ConnectionTimeouts(queue, idleTimeout, readTimeout, writeTimeout, toWriteQueue, new ConnectionTimeouts.Expired() {
+				@Override
+				public void expired(IOException reason) {
+					disconnectAndRemove(reason);
+				}
+			});
+			if (byteBufferAllocator instanceof AdaptiveByteBufferAllocator) {
+				readSizing = ((AdaptiveByteBufferAllocator) byteBufferAllocator).handle();
+				readAllocator = readSizing;
+			} else {
+				readSizing = null;
+				readAllocator = byteBufferAllocator;
+			}
+			pooled = PooledByteBufferAllocator.pooled(readAllocator);
 
 			outboundChannels.add(this);
 			LOGGER.debug("-> Clients connected: {}", outboundChannels.size());
 		}
 		
+		void requestWrite() {
+			SocketChannel channel = currentChannel;
+			SelectionKey selectionKey = currentSelectionKey;
+			if (channel == null) {
+				return;
+			}
+			if (selectionKey == null) {
+				return;
+			}
+			if (!channel.isOpen()) {
+				return;
+			}
+			if (!selectionKey.isValid()) {
+				return;
+			}
+			selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+		}
+		
 		void disconnectAndRemove(IOException error) {
 			disconnect(error);
 			
-			outboundChannels.remove(this);
+			remove();
 			LOGGER.debug("<- Clients connected: {}", outboundChannels.size());
 		}
 		
+		// Frees the admission slot only once
+		void remove() {
+			if (outboundChannels.remove(this)) {
+				admission.release(clientIp);
+			}
+		}
+		
 		void disconnect(IOException error) {
 			if (currentChannel != null) {
 				try {
@@ -483,12 +819,16 @@ public final class TcpSocketServer implements Listener {
 			if (currentSelectionKey != null) {
 				currentSelectionKey.cancel();
 			}
+			timeouts.stop();
+			if (spareReadBuffer != null) {
+				if (pooled) {
+					PooledByteBufferAllocator.releaseBuffer(spareReadBuffer);
+				}
+				spareReadBuffer = null;
+			}
 
 			IOException e = (error == null) ? new IOException("Closed") : new IOException("Closed because of", error);
-			for (ToWrite toWrite : toWriteQueue) {
-				toWrite.callback.failed(e);
-			}
-			toWriteQueue.clear();
+			toWriteQueue.fail(e);
 
 			currentChannel = null;
 			currentSelectionKey = null;
@@ -0,0 +1,279 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+/**
+ * Write side of a TCP connection, only used from the connection queue.
+ * <p>
+ * Queued buffers are written with a single gathering write per readiness event. When corked, the small buffers are also copied together,
+ * so that a burst of tiny sends (headers, chunk headers, frame headers) becomes a single buffer.
+ * The pending bytes can also be summed up with the ones of other queues, in a shared counter.
+ * File regions are transferred to the channel with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, in order with the buffers.
+ */
+final class TcpWriteQueue {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TcpWriteQueue.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpWriteQueue.class.getPackage().getName());
+	private static final int GATHER = CONFIG.getInt("tcp.write.gather");
+	private static final int CORK_COMBINE = CONFIG.getBytes("tcp.write.cork.combine").intValue();
+	private static final int CORK_BUFFER = CONFIG.getBytes("tcp.write.cork.buffer").intValue();
+	private static final long WATERMARK_HIGH = CONFIG.getBytes("tcp.write.watermark.high").longValue();
+	private static final long WATERMARK_LOW = CONFIG.getBytes("tcp.write.watermark.low").longValue();
+
+	private static final class ToWrite {
+		public final ByteBuffer buffer; // null to close gracefully (if file is null too)
+		public final SendCallback callback;
+		public final FileChannel file;
+		public long position;
+		public long count;
+		public ToWrite(ByteBuffer buffer, SendCallback callback) {
+			this.buffer = buffer;
+			this.callback = callback;
+			file = null;
+		}
+		public ToWrite(FileChannel file, long position, long count, SendCallback callback) {
+			buffer = null;
+			this.callback = callback;
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
+	}
+
+	private static final class CombinedSendCallback implements SendCallback {
+		private final List<SendCallback> callbacks = new LinkedList<>();
+		public CombinedSendCallback() {
+		}
+		@Override
+		public void sent() {
+			for (SendCallback c : callbacks) {
+				c.sent();
+			}
+		}
+		@Override
+		public void failed(IOException e) {
+			for (SendCallback c : callbacks) {
+				c.failed(e);
+			}
+		}
+	}
+
+	private final boolean cork;
+	private final SocketMetrics metrics;
+	private final Deque<ToWrite> toWriteQueue = new ArrayDeque<>();
+	private long toWriteLength = 0L;
+	private final AtomicLong sharedLength; // Null if not shared
+	private final ByteBuffer[] gathering = new ByteBuffer[GATHER];
+
+	// Buffer being filled (write mode) when corked, always after the last queued buffer
+	private ByteBuffer combining = null;
+	private CombinedSendCallback combiningCallback = null;
+
+	private Writing writing = null;
+	private boolean unwritable = false;
+
+	public TcpWriteQueue(boolean cork, SocketMetrics metrics) {
+		this(cork, metrics, null);
+	}
+	public TcpWriteQueue(boolean cork, SocketMetrics metrics, AtomicLong sharedLength) {
+		this.cork = cork;
+		this.metrics = metrics;
+		this.sharedLength = sharedLength;
+	}
+
+	public void writing(Writing writing) {
+		this.writing = writing;
+	}
+
+	public boolean isEmpty() {
+		return toWriteQueue.isEmpty() && (combining == null);
+	}
+
+	public long length() {
+		return toWriteLength;
+	}
+
+	public void add(ByteBuffer buffer, SendCallback callback) {
+		if (buffer == null) {
+			closeCombining();
+			toWriteQueue.add(new ToWrite(null, callback));
+			return;
+		}
+
+		int size = buffer.remaining();
+		pending(size);
+
+		if (cork && (size <= CORK_COMBINE)) {
+			if ((combining != null) && (combining.remaining() < size)) {
+				closeCombining();
+			}
+			if (combining == null) {
+				combining = ByteBuffer.allocate(Math.max(CORK_BUFFER, size));
+				combiningCallback = new CombinedSendCallback();
+			}
+			combining.put(buffer);
+			combiningCallback.callbacks.add(callback);
+		} else {
+			closeCombining();
+			toWriteQueue.add(new ToWrite(buffer, callback));
+		}
+
+		if (!unwritable && (WATERMARK_HIGH > 0L) && (toWriteLength > WATERMARK_HIGH)) {
+			unwritable = true;
+			if (writing != null) {
+				writing.unwritable();
+			}
+		}
+	}
+
+	public void add(FileChannel file, long position, long count, SendCallback callback) {
+		closeCombining();
+		toWriteQueue.add(new ToWrite(file, position, count, callback));
+		pending(count);
+
+		if (!unwritable && (WATERMARK_HIGH > 0L) && (toWriteLength > WATERMARK_HIGH)) {
+			unwritable = true;
+			if (writing != null) {
+				writing.unwritable();
+			}
+		}
+	}
+
+	private void closeCombining() {
+		if (combining == null) {
+			return;
+		}
+		combining.flip();
+		toWriteQueue.add(new ToWrite(combining, combiningCallback));
+		combining = null;
+		combiningCallback = null;
+	}
+
+	/**
+	 * Returns true if everything has been written, false if the channel cannot accept more for now.
+	 */
+	public boolean write(SocketChannel channel) throws IOException {
+		closeCombining();
+
+		while (true) {
+			ToWrite toWrite = toWriteQueue.peek();
+			if (toWrite == null) {
+				checkWritable();
+				return true;
+			}
+
+			if (toWrite.file != null) {
+				while (toWrite.count > 0L) {
+					long written = toWrite.file.transferTo(toWrite.position, toWrite.count, channel);
+					LOGGER.trace("Actual file transfer: {} bytes", written);
+					if (written == 0L) {
+						if (toWrite.position >= toWrite.file.size()) {
+							throw new IOException("File truncated, " + toWrite.count + " bytes missing");
+						}
+						checkWritable();
+						return false;
+					}
+					toWrite.position += written;
+					toWrite.count -= written;
+					pending(-written);
+					metrics.out(written);
+				}
+				toWriteQueue.remove();
+				toWrite.callback.sent();
+				continue;
+			}
+
+			if (toWrite.buffer == null) {
+				toWriteQueue.remove();
+				try {
+					channel.close();
+				} catch (IOException e) {
+					LOGGER.trace("Graceful close failed", e);
+					toWrite.callback.failed(e);
+					throw e;
+				}
+				toWrite.callback.sent();
+				continue;
+			}
+
+			int n = 0;
+			for (ToWrite w : toWriteQueue) {
+				if ((w.buffer == null) || (n == gathering.length)) {
+					break;
+				}
+				gathering[n] = w.buffer;
+				n++;
+			}
+
+			long written;
+			try {
+				written = channel.write(gathering, 0, n);
+			} finally {
+				for (int i = 0; i < n; i++) {
+					gathering[i] = null;
+				}
+			}
+			LOGGER.trace("Actual write buffer: {} bytes ({} buffers)", written, n);
+			pending(-written);
+			if (written > 0L) {
+				metrics.out(written);
+			}
+
+			while (true) {
+				ToWrite w = toWriteQueue.peek();
+				if ((w == null) || (w.buffer == null) || w.buffer.hasRemaining()) {
+					break;
+				}
+				toWriteQueue.remove();
+				w.callback.sent();
+			}
+
+			ToWrite w = toWriteQueue.peek();
+			if ((w != null) && (w.buffer != null) && w.buffer.hasRemaining()) {
+				checkWritable();
+				return false;
+			}
+		}
+	}
+
+	private void pending(long delta) {
+		toWriteLength += delta;
+		if (sharedLength != null) {
+			sharedLength.addAndGet(delta);
+		}
+	}
+
+	private void checkWritable() {
+		if (unwritable && (toWriteLength <= WATERMARK_LOW)) {
+			unwritable = false;
+			if (writing != null) {
+				writing.writable();
+			}
+		}
+	}
+
+	public void fail(IOException e) {
+		closeCombining();
+		for (ToWrite toWrite : toWriteQueue) {
+			toWrite.callback.failed(e);
+		}
+		toWriteQueue.clear();
+		pending(-toWriteLength);
+		unwritable = false;
+	}
+}
@@ -10,16 +10,13 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.Housekeeping;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 
@@ -54,7 +51,7 @@ public final class TcpdumpSupervise {
 	}
 
 	private static void execute(String name, Runnable runnable) {
-		new ClassThreadFactory(TcpdumpSocket.class, name).newThread(runnable).start();
+		Housekeeping.execute(TcpdumpSocket.class.getSimpleName() + "-" + name, runnable);
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -95,9 +92,7 @@ public final class TcpdumpSupervise {
 		double startDisplay = supervisionDisplay - (now - floorTime(now, supervisionDisplay));
 		double startClear = supervisionClear - (now - floorTime(now, supervisionClear));
 		
-		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(TcpdumpSupervise.class, true));
-
-		executor.scheduleAtFixedRate(new Runnable() {
+		Housekeeping.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
 				long ip = inPackets.get();
@@ -106,9 +101,9 @@ public final class TcpdumpSupervise {
 				long ob = outBytes.get();
 				LOGGER.debug("out = {} ({} Kb), in = {} ({} Kb), lost = {} ({} %)", op, ob / 1000d, ip, ib / 1000d, op - ip, percent(op, ip));
 			}
-		}, (long) (startDisplay * 1000d), (long) (supervisionDisplay * 1000d), TimeUnit.MILLISECONDS);
+		}, startDisplay, supervisionDisplay);
 
-		executor.scheduleAtFixedRate(new Runnable() {
+		Housekeeping.scheduleAtFixedRate(new Runnable() {
 			@Override
 			public void run() {
 				long ip = inPackets.getAndSet(0L);
@@ -117,7 +112,7 @@ public final class TcpdumpSupervise {
 				long ob = outBytes.getAndSet(0L);
 				LOGGER.info("(cleared) out = {} ({} Kb), in = {} ({} Kb), lost = {} ({} %)", op, ob / 1000d, ip, ib / 1000d, op - ip, percent(op, ip));
 			}
-		}, (long) (startClear * 1000d), (long) (supervisionClear * 1000d), TimeUnit.MILLISECONDS);
+		}, startClear, supervisionClear);
 
 		//
 		
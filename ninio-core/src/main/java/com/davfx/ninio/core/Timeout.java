@@ -1,159 +1,197 @@
 package com.davfx.ninio.core;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.dependencies.Dependencies;
 import com.davfx.ninio.util.ConfigUtils;
-import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.Housekeeping;
 import com.davfx.ninio.util.SerialExecutor;
+import com.davfx.ninio.util.TimingWheel;
 import com.typesafe.config.Config;
 
+/**
+ * Timeouts are kept in a hierarchical timing wheel of {@code timeout.tick} ticks, advanced by a single {@link Housekeeping} timer
+ * scheduled at its next deadline (no thread is kept, and no tick is run, while nothing is due).
+ * <p>
+ * {@link Manager#reset()} only records the new deadline, the entry is moved when its previous deadline is reached.
+ * The wheel is only accessed from a {@link SerialExecutor}, failing callbacks are run from it.
+ */
 public final class Timeout implements AutoCloseable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Timeout.class);
-	
+
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(Timeout.class.getPackage().getName());
-	private static final double PRECISION = ConfigUtils.getDuration(CONFIG, "timeout.precision");
-
-	private final Executor executor = new SerialExecutor(Timeout.class);
-	
-	private static final class Task {
-		public long id = -1L;
-		
-		private final double timeout;
-		
-		public double time;
+	private static final long TICK = Math.max(1L, (long) (ConfigUtils.getDuration(CONFIG, "timeout.tick") * 1000000000d));
+	private static final int WHEEL_SIZE = CONFIG.getInt("timeout.wheel.size");
+	private static final int WHEEL_LEVELS = CONFIG.getInt("timeout.wheel.levels");
+
+	private final class Task implements Runnable {
+		private final long timeout;
+
+		public final AtomicBoolean started = new AtomicBoolean(false);
+		public volatile long deadline;
+		public volatile boolean cancelled = false;
+
+		// Only accessed from the executor
 		public Runnable failing = null;
+		public TimingWheel.Entry entry = null;
 
 		public Task(double timeout) {
-			this.timeout = timeout;
+			this.timeout = (long) (timeout * 1000000000d);
 		}
-		
+
 		public void reset() {
-			double now = DateUtils.now();
-			time = now + timeout;
-			LOGGER.trace("[now = {}] Reset in {} -> at {} ms", (long) (now * 1000L), timeout, (long) (time * 1000d));
+			deadline = System.nanoTime() + timeout;
+			LOGGER.trace("Reset in {} ns", timeout);
+		}
+
+		@Override
+		public void run() {
+			entry = null;
+			if (cancelled) {
+				return;
+			}
+			long t = tickOf(deadline);
+			if (t > wheel.tick()) {
+				entry = wheel.schedule(t, this);
+				return;
+			}
+			failing.run();
 		}
 	}
-	
-	private long nextId = 0L;
-	private final Map<Long, Task> tasks = new HashMap<>();
-	private boolean closed = false;
-	
+
+	private final long origin = System.nanoTime();
+	private final TimingWheel wheel = new TimingWheel(WHEEL_SIZE, WHEEL_LEVELS, 0L);
+	private final SerialExecutor executor = new SerialExecutor(Timeout.class);
+	private final AtomicBoolean tickPending = new AtomicBoolean(false);
+	private volatile boolean closed = false;
+	private ScheduledFuture<?> ticker = null; // Only accessed from the executor
+	private long tickerDeadline = 0L; // Tick of the ticker
+
+	private final Runnable advance = new Runnable() {
+		@Override
+		public void run() {
+			tickPending.set(false);
+			wheel.advance((System.nanoTime() - origin) / TICK);
+		}
+	};
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			// Ticks are coalesced if the executor is late
+			if (tickPending.compareAndSet(false, true)) {
+				execute(advance);
+			}
+		}
+	};
+
 	public Timeout() {
-		executeWait();
 	}
-	
+
 	@Override
 	public void close() {
+		closed = true;
 		executor.execute(new Runnable() {
 			@Override
 			public void run() {
-				closed = true;
+				if (ticker != null) {
+					ticker.cancel(false);
+					ticker = null;
+				}
 			}
 		});
 	}
-	
-	private void executeWait() {
+
+	private long tickOf(long nanoTime) {
+		long d = nanoTime - origin;
+		return (d + TICK - 1L) / TICK;
+	}
+
+	private void execute(final Runnable r) {
 		executor.execute(new Runnable() {
 			@Override
 			public void run() {
 				if (closed) {
 					return;
 				}
-				
 				try {
-					Thread.sleep((long) (PRECISION * 1000d));
-				} catch (InterruptedException ie) {
+					r.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in timeout task", t);
 				}
 
-				if (!closed) {
-					executeCheck();
-				}
-			}
-		});
-	}
-	private void executeCheck() {
-		executor.execute(new Runnable() {
-			@Override
-			public void run() {
-				if (closed) {
-					return;
-				}
-				
-				double now = DateUtils.now();
-
-				Iterator<Task> i = tasks.values().iterator();
-				while (i.hasNext()) {
-					Task task = i.next();
-					if (task.time <= now) {
-						if (task.failing != null) {
-							task.failing.run();
+				// Ticking only at the next deadline
+				if (wheel.isEmpty()) {
+					if (ticker != null) {
+						ticker.cancel(false);
+						ticker = null;
+					}
+				} else {
+					long next = wheel.nextDeadline();
+					if ((ticker == null) || ticker.isDone() || (tickerDeadline <= wheel.tick()) || (next < tickerDeadline)) {
+						if (ticker != null) {
+							ticker.cancel(false);
 						}
-						i.remove();
+						tickerDeadline = next;
+						long delay = Math.max(0L, (origin + (next * TICK)) - System.nanoTime());
+						ticker = Housekeeping.schedule(tick, delay / 1000000000d);
 					}
 				}
-				
-				if (!closed) {
-					executeWait();
-				}
 			}
 		});
 	}
-	
+
 	public static interface Manager {
 		void run(Runnable failing);
 		void reset();
 		void cancel();
 	}
-	
+
 	public Manager set(double timeout) {
 		final Task task = new Task(timeout);
 		return new Manager() {
 			@Override
 			public void run(final Runnable failing) {
-				executor.execute(new Runnable() {
+				if (!task.started.compareAndSet(false, true)) {
+					return;
+				}
+				task.reset();
+				execute(new Runnable() {
 					@Override
 					public void run() {
-						if (task.id >= 0L) {
+						if (task.cancelled) {
 							return;
 						}
 						task.failing = failing;
-						task.id = nextId;
-						nextId++;
-						tasks.put(task.id, task);
-						task.reset();
+						task.entry = wheel.schedule(tickOf(task.deadline), task);
 					}
 				});
 			}
 			@Override
 			public void reset() {
-				executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						if (task.id < 0L) {
-							return;
-						}
-						task.reset();
-					}
-				});
+				if (!task.started.get()) {
+					return;
+				}
+				task.reset();
 			}
-			
+
 			@Override
 			public void cancel() {
-				executor.execute(new Runnable() {
+				if (!task.started.get()) {
+					return;
+				}
+				task.cancelled = true;
+				execute(new Runnable() {
 					@Override
 					public void run() {
-						if (task.id < 0L) {
-							return;
+						if (task.entry != null) {
+							wheel.cancel(task.entry);
+							task.entry = null;
 						}
-						tasks.remove(task.id);
 					}
 				});
 			}
@@ -12,6 +12,7 @@ import java.util.Enumeration;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -30,6 +31,8 @@ public final class Trust {
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(Trust.class.getPackage().getName());
 	private static final boolean INSECURE = CONFIG.getBoolean("insecure");
 	private static final String TLS_VERSION = CONFIG.getString("tls");
+	private static final int SESSION_CACHE_SIZE = CONFIG.getInt("secure.session.cache.size");
+	private static final double SESSION_CACHE_TIMEOUT = ConfigUtils.getDuration(CONFIG, "secure.session.cache.timeout");
 
 	private final KeyStore ksKeys;
 	private final SSLContext sslContext;
@@ -62,6 +65,7 @@ public final class Trust {
 
 			sslContext = SSLContext.getInstance(TLS_VERSION);
 			sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+			sessions(sslContext);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -95,6 +99,7 @@ public final class Trust {
 
 			sslContext = SSLContext.getInstance(TLS_VERSION);
 			sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+			sessions(sslContext);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -132,6 +137,7 @@ public final class Trust {
 			
 			sslContext = SSLContext.getInstance(TLS_VERSION);
 			sslContext.init(null, t, null);
+			sessions(sslContext);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -180,9 +186,25 @@ public final class Trust {
 		}
 	}
 	
+	private static void sessions(SSLContext sslContext) {
+		for (SSLSessionContext c : new SSLSessionContext[] { sslContext.getClientSessionContext(), sslContext.getServerSessionContext() }) {
+			c.setSessionCacheSize(SESSION_CACHE_SIZE);
+			c.setSessionTimeout((int) SESSION_CACHE_TIMEOUT);
+		}
+	}
+	
 	public SSLEngine createEngine(boolean clientMode) {
 		SSLEngine engine = sslContext.createSSLEngine();
 		engine.setUseClientMode(clientMode);
 		return engine;
 	}
+	
+	/**
+	 * The engine can resume a session previously established with the same peer, skipping the full handshake.
+	 */
+	public SSLEngine createEngine(boolean clientMode, Address peer) {
+		SSLEngine engine = sslContext.createSSLEngine(Address.ipToString(peer.ip), peer.port);
+		engine.setUseClientMode(clientMode);
+		return engine;
+	}
 }
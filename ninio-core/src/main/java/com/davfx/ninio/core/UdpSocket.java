@@ -8,19 +8,15 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.dependencies.Dependencies;
-import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
 import com.davfx.ninio.util.DateUtils;
 import com.davfx.ninio.util.Wait;
@@ -113,80 +109,25 @@ public final class UdpSocket implements Connecter {
 			}
 		}
 	}
-	
-	
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(UdpSocket.class);
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(UdpSocket.class.getPackage().getName());
 	private static final long WRITE_MAX_BUFFER_SIZE = CONFIG.getBytes("udp.buffer.write").longValue();
 	private static final long SOCKET_WRITE_BUFFER_SIZE = CONFIG.getBytes("udp.socket.write").longValue();
 	private static final long SOCKET_READ_BUFFER_SIZE = CONFIG.getBytes("udp.socket.read").longValue();
+	private static final int READ_BATCH = CONFIG.getInt("udp.read.batch");
+	private static final int READ_ADDRESSES = CONFIG.getInt("udp.read.addresses");
+	private static final long WRITE_WATERMARK_HIGH = CONFIG.getBytes("udp.write.watermark.high").longValue();
+	private static final long WRITE_WATERMARK_LOW = CONFIG.getBytes("udp.write.watermark.low").longValue();
 
-	private static final double SUPERVISION_DISPLAY = ConfigUtils.getDuration(CONFIG, "supervision.udp.display");
-	private static final double SUPERVISION_CLEAR = ConfigUtils.getDuration(CONFIG, "supervision.udp.clear");
-
-	private static final class Supervision {
-		private static double floorTime(double now, double period) {
-	    	double precision = 1000d;
-	    	long t = (long) (now * precision);
-	    	long d = (long) (period * precision);
-	    	return (t - (t % d)) / precision;
-		}
-		
-		private static String percent(long out, long in) {
-			return String.format("%.2f", ((double) (out - in)) * 100d / ((double) out));
-		}
-	
-		private final AtomicLong inPackets = new AtomicLong(0L);
-		private final AtomicLong outPackets = new AtomicLong(0L);
-		private final AtomicLong inBytes = new AtomicLong(0L);
-		private final AtomicLong outBytes = new AtomicLong(0L);
-		
-		public Supervision() {
-			double now = DateUtils.now();
-			double startDisplay = SUPERVISION_DISPLAY - (now - floorTime(now, SUPERVISION_DISPLAY));
-			double startClear = SUPERVISION_CLEAR - (now - floorTime(now, SUPERVISION_CLEAR));
-			
-			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(UdpSocket.Supervision.class, true));
-
-			executor.scheduleAtFixedRate(new Runnable() {
-				@Override
-				public void run() {
-					long ip = inPackets.get();
-					long ib = inBytes.get();
-					long op = outPackets.get();
-					long ob = outBytes.get();
-					LOGGER.debug("[UDP Supervision] out = {} ({} Kb), in = {} ({} Kb), lost = {} %", op, ob / 1000d, ip, ib / 1000d, percent(op, ip));
-				}
-			}, (long) (startDisplay * 1000d), (long) (SUPERVISION_DISPLAY * 1000d), TimeUnit.MILLISECONDS);
-
-			executor.scheduleAtFixedRate(new Runnable() {
-				@Override
-				public void run() {
-					long ip = inPackets.getAndSet(0L);
-					long ib = inBytes.getAndSet(0L);
-					long op = outPackets.getAndSet(0L);
-					long ob = outBytes.getAndSet(0L);
-					LOGGER.info("[UDP Supervision] (cleared) out = {} ({} Kb), in = {} ({} Kb), lost = {} %", op, ob / 1000d, ip, ib / 1000d, percent(op, ip));
-				}
-			}, (long) (startClear * 1000d), (long) (SUPERVISION_CLEAR * 1000d), TimeUnit.MILLISECONDS);
-		}
-		
-		public void incIn(long bytes) {
-			inPackets.incrementAndGet();
-			inBytes.addAndGet(bytes);
-		}
-		public void incOut(long bytes) {
-			outPackets.incrementAndGet();
-			outBytes.addAndGet(bytes);
-		}
-	}
-	
-	private static final Supervision SUPERVISION = (SUPERVISION_DISPLAY > 0d) ? new Supervision() : null;
-	
 	public static interface Builder extends NinioBuilder<Connecter> {
 		Builder with(ByteBufferAllocator byteBufferAllocator);
 		Builder bind(Address bindAddress);
+		/**
+		 * Maximum number of datagrams read per readiness event and delivered at once to a {@link BatchReceiver}.
+		 */
+		Builder batch(int batch);
 	}
 
 	public static Builder builder() {
@@ -194,6 +135,7 @@ public final class UdpSocket implements Connecter {
 			private ByteBufferAllocator byteBufferAllocator = new DefaultByteBufferAllocator();
 			
 			private Address bindAddress = null;
+			private int batch = READ_BATCH;
 			
 			@Override
 			public Builder with(ByteBufferAllocator byteBufferAllocator) {
@@ -207,9 +149,15 @@ public final class UdpSocket implements Connecter {
 				return this;
 			}
 			
+			@Override
+			public Builder batch(int batch) {
+				this.batch = batch;
+				return this;
+			}
+			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
-				return new UdpSocket(ninioProvider.queue(NinioPriority.HIGH), byteBufferAllocator, bindAddress);
+				return new UdpSocket(ninioProvider.queue(NinioPriority.HIGH), byteBufferAllocator, bindAddress, batch);
 			}
 		};
 	}
@@ -227,20 +175,36 @@ public final class UdpSocket implements Connecter {
 
 	private final Queue queue;
 	private final ByteBufferAllocator byteBufferAllocator;
+	private final boolean pooled; // Read buffers released once received
 	private final Address bindAddress;
+	private final int batch;
 	private DatagramChannel currentChannel = null;
 	private SelectionKey currentSelectionKey = null;
 
 	private final Deque<ToWrite> toWriteQueue = new LinkedList<>();
 	private long toWriteLength = 0L;
+	private Writing writing = null;
+	private boolean unwritable = false;
+
+	private ByteBuffer spareReadBuffer = null; // Kept for the next read when nothing was received into it
+	private final AddressCache addressCache = new AddressCache(READ_ADDRESSES);
+
+	// Batch mode only, reused for every datagram
+	private ByteBuffer batchReadBuffer = null;
+	private Address[] batchAddresses = null;
+	private ByteBuffer[] batchBuffers = null;
+
+	private final SocketMetrics metrics = new SocketMetrics("udp");
 
 	private Connection connectCallback = null;
 	private boolean closed = false;
 	
-	public UdpSocket(Queue queue, ByteBufferAllocator byteBufferAllocator, Address bindAddress) {
+	public UdpSocket(Queue queue, ByteBufferAllocator byteBufferAllocator, Address bindAddress, int batch) {
 		this.queue = queue;
 		this.byteBufferAllocator = byteBufferAllocator;
+		pooled = PooledByteBufferAllocator.pooled(byteBufferAllocator);
 		this.bindAddress = bindAddress;
+		this.batch = batch;
 	}
 	
 	@Override
@@ -263,6 +227,7 @@ public final class UdpSocket implements Connecter {
 					
 					final DatagramChannel channel = DatagramChannel.open();
 					currentChannel = channel;
+					writing = (callback instanceof Writing) ? (Writing) callback : null;
 					try {
 						channel.configureBlocking(false);
 						if (SOCKET_READ_BUFFER_SIZE > 0L) {
@@ -287,8 +252,16 @@ public final class UdpSocket implements Connecter {
 								}
 								
 								if (key.isReadable()) {
+									if (callback instanceof BatchReceiver) {
+										receiveBatch(channel, selectionKey, (BatchReceiver) callback);
+										return;
+									}
+									
 									while (true) {
-										ByteBuffer readBuffer = byteBufferAllocator.allocate();
+										if (spareReadBuffer == null) {
+											spareReadBuffer = byteBufferAllocator.allocate();
+										}
+										ByteBuffer readBuffer = spareReadBuffer;
 										InetSocketAddress from;
 										try {
 											from = (InetSocketAddress) channel.receive(readBuffer);
@@ -305,15 +278,15 @@ public final class UdpSocket implements Connecter {
 											LOGGER.error("Packet received too big: {} bytes", readBuffer.position());
 										}
 	
+										spareReadBuffer = null;
 										readBuffer.flip();
-										Address a = new Address(from.getAddress().getAddress(), from.getPort());
+										Address a = addressCache.get(from);
 										
-										if (SUPERVISION != null) {
-											SUPERVISION.incIn(readBuffer.remaining());
-										}
-										long start = System.nanoTime();
-										while((start + 100000L) >= System.nanoTime());
+										metrics.in(readBuffer.remaining());
 										callback.received(a, readBuffer);
+										if (pooled) {
+											PooledByteBufferAllocator.releaseBuffer(readBuffer);
+										}
 									}
 								} else if (key.isWritable()) {
 									while (true) {
@@ -366,9 +339,9 @@ public final class UdpSocket implements Connecter {
 														throw new IOException("Packet was not entirely written");
 													}
 	
-													if (SUPERVISION != null) {
-														SUPERVISION.incOut(size);
-													}
+													metrics.out(size);
+
+													toWriteLength -= size;
 												} catch (IOException e) {
 													LOGGER.trace("Write failed", e);
 													//%% disconnect(channel, selectionKey, callback);
@@ -400,9 +373,7 @@ public final class UdpSocket implements Connecter {
 														throw new IOException("Packet was not entirely written");
 													}
 	
-													if (SUPERVISION != null) {
-														SUPERVISION.incOut(size);
-													}
+													metrics.out(size);
 	
 													toWriteLength -= size; //%% - toWrite.buffer.remaining();
 												} catch (IOException e) {
@@ -423,6 +394,12 @@ public final class UdpSocket implements Connecter {
 										toWriteQueue.remove();
 										toWrite.callback.sent();
 									}
+									if (unwritable && (toWriteLength <= WRITE_WATERMARK_LOW)) {
+										unwritable = false;
+										if (writing != null) {
+											writing.writable();
+										}
+									}
 									if (!channel.isOpen()) {
 										return;
 									}
@@ -447,6 +424,7 @@ public final class UdpSocket implements Connecter {
 								callback.failed(new IOException("Could not bind to: " + bindAddress, e));
 								return;
 							}
+							metrics.bind(bindAddress);
 						}
 
 					} catch (IOException e) {
@@ -467,6 +445,62 @@ public final class UdpSocket implements Connecter {
 		});
 	}	
 	
+	private void receiveBatch(DatagramChannel channel, SelectionKey selectionKey, BatchReceiver callback) {
+		if (batchReadBuffer == null) {
+			batchReadBuffer = byteBufferAllocator.allocate();
+			batchAddresses = new Address[Math.max(1, batch)];
+			batchBuffers = new ByteBuffer[batchAddresses.length];
+		}
+		ByteBuffer readBuffer = batchReadBuffer;
+		int limit = readBuffer.limit();
+
+		int n = 0;
+		IOException error = null;
+		while (n < batchAddresses.length) {
+			readBuffer.position(0);
+			readBuffer.limit(limit);
+			InetSocketAddress from;
+			try {
+				from = (InetSocketAddress) channel.receive(readBuffer);
+				if (from == null) {
+					break;
+				}
+			} catch (IOException e) {
+				LOGGER.trace("Read failed", e);
+				error = e;
+				break;
+			}
+
+			if (!readBuffer.hasRemaining()) {
+				LOGGER.error("Packet received too big: {} bytes", readBuffer.position());
+			}
+
+			// Copied to an exactly sized buffer, the read buffer is kept for the next datagram
+			readBuffer.flip();
+			ByteBuffer b = ByteBuffer.allocate(readBuffer.remaining());
+			b.put(readBuffer);
+			b.flip();
+
+			metrics.in(b.remaining());
+
+			batchAddresses[n] = addressCache.get(from);
+			batchBuffers[n] = b;
+			n++;
+		}
+
+		if (n > 0) {
+			Address[] addresses = Arrays.copyOf(batchAddresses, n);
+			ByteBuffer[] buffers = Arrays.copyOf(batchBuffers, n);
+			Arrays.fill(batchAddresses, 0, n, null);
+			Arrays.fill(batchBuffers, 0, n, null);
+			callback.received(addresses, buffers);
+		}
+
+		if (error != null) {
+			disconnect(channel, selectionKey, callback, error);
+		}
+	}
+	
 	@Override
 	public void close() {
 		queue.execute(new Runnable() {
@@ -490,6 +524,7 @@ public final class UdpSocket implements Connecter {
 				if (buffer != null) {
 					if ((WRITE_MAX_BUFFER_SIZE > 0L) && (toWriteLength > WRITE_MAX_BUFFER_SIZE)) {
 						LOGGER.warn("Dropping {} bytes that should have been sent to {}", buffer.remaining(), address);
+						metrics.drop();
 						callback.failed(new IOException("Packet dropped"));
 						return;
 					}
@@ -499,6 +534,13 @@ public final class UdpSocket implements Connecter {
 				if (buffer != null) {
 					toWriteLength += buffer.remaining();
 					LOGGER.trace("Write buffer: {} bytes (to {}) (current size: {} bytes)", buffer.remaining(), address, toWriteLength);
+
+					if (!unwritable && (WRITE_WATERMARK_HIGH > 0L) && (toWriteLength > WRITE_WATERMARK_HIGH)) {
+						unwritable = true;
+						if (writing != null) {
+							writing.unwritable();
+						}
+					}
 				}
 				
 				DatagramChannel channel = currentChannel;
@@ -531,12 +573,27 @@ public final class UdpSocket implements Connecter {
 		if (selectionKey != null) {
 			selectionKey.cancel();
 		}
+		if (spareReadBuffer != null) {
+			if (pooled) {
+				PooledByteBufferAllocator.releaseBuffer(spareReadBuffer);
+			}
+			spareReadBuffer = null;
+		}
+		if (batchReadBuffer != null) {
+			if (pooled) {
+				PooledByteBufferAllocator.releaseBuffer(batchReadBuffer);
+			}
+			batchReadBuffer = null;
+		}
 
 		IOException e = (error == null) ? new IOException("Closed") : new IOException("Closed because of", error);
 		for (ToWrite toWrite : toWriteQueue) {
 			toWrite.callback.failed(e);
 		}
 		toWriteQueue.clear();
+		toWriteLength = 0L;
+		unwritable = false;
+		metrics.unbind();
 
 		currentChannel = null;
 		currentSelectionKey = null;
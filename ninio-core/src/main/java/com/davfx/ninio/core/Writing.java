@@ -0,0 +1,11 @@
+package com.davfx.ninio.core;
+
+/**
+ * Implemented by a {@link Connection} to be notified, from the socket queue, when the pending writes go above the high watermark
+ * and then back below the low watermark ({@code tcp.write.watermark} and {@code udp.write.watermark}).
+ * Producers should stop sending between both calls instead of relying on the write buffer limits, which drop packets.
+ */
+public interface Writing {
+	void unwritable();
+	void writable();
+}
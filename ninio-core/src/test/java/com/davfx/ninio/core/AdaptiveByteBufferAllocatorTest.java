@@ -0,0 +1,50 @@
+package com.davfx.ninio.core;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class AdaptiveByteBufferAllocatorTest {
+	@Test
+	public void testGrowAndShrink() throws Exception {
+		AdaptiveByteBufferAllocator allocator = new AdaptiveByteBufferAllocator();
+		Map<String, Long> before = Metrics.global().values();
+		AdaptiveByteBufferAllocator.Handle handle = allocator.handle();
+		Assertions.assertThat(handle.size()).isEqualTo(2048);
+
+		ByteBuffer b = handle.allocate();
+		Assertions.assertThat(b.remaining()).isEqualTo(2048);
+		handle.read(2048, b.limit());
+		Assertions.assertThat(handle.size()).isEqualTo(4096);
+		handle.read(4096, 4096);
+		Assertions.assertThat(handle.size()).isEqualTo(8192);
+
+		handle.read(3000, 8192);
+		Assertions.assertThat(handle.size()).isEqualTo(8192);
+		handle.read(3000, 8192);
+		Assertions.assertThat(handle.size()).isEqualTo(4096);
+		handle.read(3000, 4096); // Would not fit in the smaller size
+		handle.read(3000, 4096);
+		Assertions.assertThat(handle.size()).isEqualTo(4096);
+
+		Assertions.assertThat(allocator.grows()).isEqualTo(2L);
+		Assertions.assertThat(allocator.shrinks()).isEqualTo(1L);
+		Assertions.assertThat(allocator.allocations().get(2048)).isEqualTo(1L);
+
+		Map<String, Long> after = Metrics.global().values();
+		Assertions.assertThat(after.get("buffer.adaptive.grows") - before.get("buffer.adaptive.grows")).isEqualTo(2L);
+		Assertions.assertThat(after.get("buffer.adaptive.shrinks") - before.get("buffer.adaptive.shrinks")).isEqualTo(1L);
+		Assertions.assertThat(after.get("buffer.adaptive.size.count") - before.get("buffer.adaptive.size.count")).isEqualTo(1L);
+	}
+
+	@Test
+	public void testCappedAtPoolMax() throws Exception {
+		AdaptiveByteBufferAllocator.Handle handle = new AdaptiveByteBufferAllocator(new PooledByteBufferAllocator(1024)).handle();
+		for (int i = 0; i < 20; i++) {
+			handle.read(handle.size(), handle.size());
+		}
+		Assertions.assertThat(handle.size()).isEqualTo(PooledByteBufferAllocator.MAX_SIZE);
+	}
+}
@@ -0,0 +1,26 @@
+package com.davfx.ninio.core;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class AddressCacheTest {
+	@Test
+	public void testReuse() throws Exception {
+		AddressCache cache = new AddressCache(16);
+		Address a = cache.get(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, (byte) 200, 1 }), 161));
+		Assertions.assertThat(a).isEqualTo(new Address(new byte[] { 10, 0, (byte) 200, 1 }, 161));
+		Assertions.assertThat(a.hashCode()).isEqualTo(new Address(new byte[] { 10, 0, (byte) 200, 1 }, 161).hashCode());
+		Assertions.assertThat(cache.get(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, (byte) 200, 1 }), 161))).isSameAs(a);
+		Assertions.assertThat(cache.get(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, (byte) 200, 1 }), 162))).isNotEqualTo(a);
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		AddressCache cache = new AddressCache(0);
+		InetSocketAddress from = new InetSocketAddress(InetAddress.getByAddress(Address.LOCALHOST), 8080);
+		Assertions.assertThat(cache.get(from)).isNotSameAs(cache.get(from)).isEqualTo(new Address(Address.LOCALHOST, 8080));
+	}
+}
@@ -0,0 +1,61 @@
+package com.davfx.ninio.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class InternalQueueTest {
+
+	@Test
+	public void testNoWakeupLostOnIdleLoop() throws Exception {
+		final InternalQueue queue = new InternalQueue(NinioPriority.REGULAR);
+		try {
+			final int threads = 8;
+			final int n = 20000;
+			final AtomicInteger lost = new AtomicInteger(0);
+
+			// Each task is only posted once the previous one has run, so that the loop keeps going back to a blocking select
+			List<Thread> l = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				l.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						final Semaphore done = new Semaphore(0);
+						Runnable task = new Runnable() {
+							@Override
+							public void run() {
+								done.release();
+							}
+						};
+						for (int i = 0; i < n; i++) {
+							queue.execute(task);
+							try {
+								if (!done.tryAcquire(5, TimeUnit.SECONDS)) {
+									lost.incrementAndGet();
+									return;
+								}
+							} catch (InterruptedException ie) {
+								return;
+							}
+						}
+					}
+				}));
+			}
+			for (Thread t : l) {
+				t.start();
+			}
+			for (Thread t : l) {
+				t.join();
+			}
+
+			Assertions.assertThat(lost.get()).isEqualTo(0);
+		} finally {
+			queue.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.davfx.ninio.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class LimitTest {
+
+	private static Runnable append(final StringBuilder b, final String s) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				b.append(s);
+			}
+		};
+	}
+
+	@Test
+	public void testFifo() throws Exception {
+		Limit limit = new Limit();
+		StringBuilder b = new StringBuilder();
+
+		Limit.Manager m1 = limit.inc(2);
+		Limit.Manager m2 = limit.inc(2);
+		Limit.Manager m3 = limit.inc(2);
+		Limit.Manager m4 = limit.inc(2);
+		Limit.Manager m5 = limit.inc(2);
+
+		m1.add(append(b, "1"));
+		m2.add(append(b, "2"));
+		m3.add(append(b, "3"));
+		m4.add(append(b, "4"));
+		m5.add(append(b, "5"));
+		m3.add(append(b, "3"));
+		Assertions.assertThat(b.toString()).isEqualTo("12");
+		Assertions.assertThat(limit.running()).isEqualTo(2);
+
+		m4.cancel();
+		m2.cancel();
+		Assertions.assertThat(b.toString()).isEqualTo("1233");
+		m1.cancel();
+		Assertions.assertThat(b.toString()).isEqualTo("12335");
+		m1.add(append(b, "1"));
+		Assertions.assertThat(b.toString()).isEqualTo("12335");
+
+		m3.cancel();
+		m5.cancel();
+		Assertions.assertThat(limit.running()).isEqualTo(0);
+	}
+
+	@Test
+	public void testByKey() throws Exception {
+		Limit limit = new Limit();
+		StringBuilder b = new StringBuilder();
+
+		Limit.Manager a1 = limit.inc("a", 1);
+		Limit.Manager a2 = limit.inc("a", 1);
+		Limit.Manager b1 = limit.inc("b", 1);
+
+		a1.add(append(b, "a1"));
+		a2.add(append(b, "a2"));
+		b1.add(append(b, "b1"));
+		Assertions.assertThat(b.toString()).isEqualTo("a1b1");
+		a1.cancel();
+		Assertions.assertThat(b.toString()).isEqualTo("a1b1a2");
+		Assertions.assertThat(limit.running()).isEqualTo(0);
+
+		Assertions.assertThat(limit.keys()).isEqualTo(2);
+		a2.cancel();
+		b1.cancel();
+		Assertions.assertThat(limit.keys()).isEqualTo(0);
+		Limit.Manager a3 = limit.inc("a", 1);
+		a3.add(append(b, "a3"));
+		Assertions.assertThat(b.toString()).isEqualTo("a1b1a2a3");
+		Assertions.assertThat(limit.keys()).isEqualTo(1);
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		concurrent(null);
+	}
+
+	// Pools are removed and created again all the time
+	@Test
+	public void testConcurrentByKey() throws Exception {
+		concurrent("k");
+	}
+
+	private static void concurrent(final Object key) throws Exception {
+		final Limit limit = new Limit();
+		final int max = 3;
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger done = new AtomicInteger(0);
+		final AtomicBoolean exceeded = new AtomicBoolean(false);
+		final int threads = 8;
+		final int n = 2000;
+		final CountDownLatch end = new CountDownLatch(threads);
+
+		List<Thread> l = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			l.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < n; i++) {
+						final Limit.Manager m = (key == null) ? limit.inc(max) : limit.inc(key, max);
+						m.add(new Runnable() {
+							@Override
+							public void run() {
+								if (running.incrementAndGet() > max) {
+									exceeded.set(true);
+								}
+								running.decrementAndGet();
+								done.incrementAndGet();
+								m.cancel();
+							}
+						});
+					}
+					end.countDown();
+				}
+			}));
+		}
+		for (Thread t : l) {
+			t.start();
+		}
+		end.await();
+
+		Assertions.assertThat(exceeded.get()).isFalse();
+		Assertions.assertThat(done.get()).isEqualTo(threads * n);
+		Assertions.assertThat(limit.running()).isEqualTo(0);
+		Assertions.assertThat(limit.keys()).isEqualTo(0);
+	}
+}
@@ -0,0 +1,87 @@
+package com.davfx.ninio.core;
+
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MetricsTest {
+	@Test
+	public void testCounter() throws Exception {
+		final Counter counter = new Counter();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.inc();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		counter.add(5L);
+		Assertions.assertThat(counter.get()).isEqualTo(40005L);
+	}
+
+	@Test
+	public void testHistogram() throws Exception {
+		Histogram h = new Histogram();
+		for (int i = 0; i < 99; i++) {
+			h.record(10L);
+		}
+		h.record(1000L);
+		h.record(0L);
+		Assertions.assertThat(h.count()).isEqualTo(101L);
+		Assertions.assertThat(h.max()).isEqualTo(1000L);
+		Assertions.assertThat(h.percentile(0.5d)).isEqualTo(15L); // Upper bound of [8, 15]
+		Assertions.assertThat(h.percentile(1d)).isEqualTo(1000L);
+	}
+
+	@Test
+	public void testValuesAndRemove() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.counter("a.b.in").add(3L);
+		metrics.gauge("a.b.size", new Gauge() {
+			@Override
+			public long get() {
+				return 42L;
+			}
+		});
+		metrics.histogram("a.c").record(7L);
+		metrics.counter("ab").inc();
+
+		Map<String, Long> values = metrics.values();
+		Assertions.assertThat(values.get("a.b.in")).isEqualTo(3L);
+		Assertions.assertThat(values.get("a.b.size")).isEqualTo(42L);
+		Assertions.assertThat(values.get("a.c.count")).isEqualTo(1L);
+		Assertions.assertThat(values.get("a.c.max")).isEqualTo(7L);
+
+		metrics.remove("a.b");
+		values = metrics.values();
+		Assertions.assertThat(values).doesNotContainKey("a.b.in").doesNotContainKey("a.b.size");
+		Assertions.assertThat(values).containsKeys("a.c.count", "ab");
+		Assertions.assertThat(metrics.counter("a.b.in").get()).isEqualTo(0L);
+	}
+
+	@Test
+	public void testNameUsedByAnotherType() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.histogram("a.write.pending");
+		try {
+			metrics.gauge("a.write.pending", new Gauge() {
+				@Override
+				public long get() {
+					return 0L;
+				}
+			});
+			Assertions.fail("Should have failed");
+		} catch (IllegalArgumentException iae) {
+		}
+		Assertions.assertThat(metrics.values()).containsKey("a.write.pending.count");
+	}
+}
@@ -0,0 +1,43 @@
+package com.davfx.ninio.core;
+
+import java.nio.ByteBuffer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PooledByteBufferAllocatorTest {
+	@Test
+	public void testReuse() throws Exception {
+		PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(1000);
+		ByteBuffer b = allocator.allocate();
+		Assertions.assertThat(b.isDirect()).isTrue();
+		Assertions.assertThat(b.remaining()).isEqualTo(1000);
+		b.put((byte) 1);
+		allocator.release(b);
+
+		ByteBuffer c = allocator.allocate();
+		Assertions.assertThat(c).isSameAs(b);
+		Assertions.assertThat(c.position()).isEqualTo(0);
+		Assertions.assertThat(c.remaining()).isEqualTo(1000);
+
+		Assertions.assertThat(allocator.allocate()).isNotSameAs(c);
+	}
+
+	@Test
+	public void testReferenceCount() throws Exception {
+		PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(100, false);
+		ByteBuffer b = allocator.allocate();
+		Assertions.assertThat(b.hasArray()).isTrue();
+		allocator.retain(b);
+		allocator.release(b);
+		Assertions.assertThat(allocator.allocate()).isNotSameAs(b);
+		allocator.release(b);
+		Assertions.assertThat(allocator.allocate()).isSameAs(b);
+		allocator.release(b);
+		try {
+			allocator.release(b);
+			Assertions.fail("Should have failed");
+		} catch (IllegalStateException ise) {
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package com.davfx.ninio.core;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
 import com.davfx.ninio.util.Lock;
 import com.davfx.ninio.util.Wait;
+import com.google.common.base.Charsets;
 
 public class SecureTest {
 	public void test() throws Exception {
@@ -97,4 +102,205 @@ public class SecureTest {
 		test();
 	}
 	
+	// Echoes everything received, returned once listening
+	private static Listener echoServer(Ninio ninio, Trust trust, int port) {
+		Wait serverWaitConnecting = new Wait();
+		Listener server = ninio.create(new SecureSocketServerBuilder(TcpSocketServer.builder()).trust(trust).bind(new Address(Address.ANY, port)));
+		server.listen(
+			new WaitConnectedListening(serverWaitConnecting,
+			new Listening() {
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+				
+				@Override
+				public Connection connecting(final Connected connecting) {
+					return new Connection() {
+						@Override
+						public void received(Address address, ByteBuffer buffer) {
+							// Copied, the unwrapped buffer is pooled and released once received() returns
+							connecting.send(null, PooledByteBufferAllocator.copyIfPooled(buffer), new Nop());
+						}
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+					};
+				}
+			}));
+		serverWaitConnecting.waitFor();
+		return server;
+	}
+	
+	// Sends the message count times, or the whole file if not null
+	private static String echo(Ninio ninio, Trust trust, int port, String message, int count, File file) throws Exception {
+		return echo(ninio, TcpSocket.builder(), trust, port, message, count, file);
+	}
+	private static String echo(Ninio ninio, TcpSocket.Builder tcp, Trust trust, int port, String message, int count, File file) throws Exception {
+		final Lock<String, IOException> lock = new Lock<>();
+		final int expected = message.length() * count;
+		final StringBuilder b = new StringBuilder();
+		try (Connecter client = ninio.create(new SecureSocketBuilder(tcp).trust(trust).to(new Address(Address.LOCALHOST, port)))) {
+			client.connect(new Connection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					b.append(ByteBufferUtils.toString(buffer));
+					if (b.length() >= expected) {
+						lock.set(b.toString());
+					}
+				}
+				@Override
+				public void failed(IOException ioe) {
+					lock.fail(ioe);
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+					lock.fail(new IOException("Closed"));
+				}
+			});
+			if (file == null) {
+				for (int i = 0; i < count; i++) {
+					client.send(null, ByteBufferUtils.toByteBuffer(message), new Nop());
+				}
+				return lock.waitFor();
+			}
+			try (FileInputStream in = new FileInputStream(file)) {
+				((FileSender) client).sendFile(in.getChannel(), 0L, file.length(), new Nop());
+				return lock.waitFor();
+			}
+		}
+	}
+	
+	@Test
+	public void testQueuedWritesBiggerThanRecordsAndReconnection() throws Exception {
+		final Trust trust = new Trust("/keystore.jks", "test-password", "/keystore.jks", "test-password");
+		final int port = 8081;
+
+		StringBuilder m = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			m.append((char) ('a' + (i % 26)));
+		}
+		String message = m.toString();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			expected.append(message);
+		}
+
+		try (Ninio ninio = Ninio.create()) {
+			try (Listener server = echoServer(ninio, trust, port)) {
+				Assertions.assertThat(echo(ninio, trust, port, message, 20, null)).isEqualTo(expected.toString());
+				// Resumes the session
+				Assertions.assertThat(echo(ninio, trust, port, message, 20, null)).isEqualTo(expected.toString());
+
+				File file = File.createTempFile(SecureTest.class.getSimpleName(), ".txt");
+				file.deleteOnExit();
+				try (FileOutputStream out = new FileOutputStream(file)) {
+					out.write(expected.toString().getBytes(Charsets.UTF_8));
+				}
+				Assertions.assertThat(echo(ninio, trust, port, message, 20, file)).isEqualTo(expected.toString());
+			}
+		}
+	}
+
+	// Counts the TCP sends of the TLS layer
+	private static final class CountingTcpSocketBuilder implements TcpSocket.Builder {
+		private final TcpSocket.Builder wrappee = TcpSocket.builder();
+		public final AtomicInteger sends = new AtomicInteger(0);
+
+		@Override
+		public TcpSocket.Builder with(ByteBufferAllocator byteBufferAllocator) {
+			wrappee.with(byteBufferAllocator);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder bind(Address bindAddress) {
+			wrappee.bind(bindAddress);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder to(Address connectAddress) {
+			wrappee.to(connectAddress);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder cork(boolean cork) {
+			wrappee.cork(cork);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder idleTimeout(double idleTimeout) {
+			wrappee.idleTimeout(idleTimeout);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder readTimeout(double readTimeout) {
+			wrappee.readTimeout(readTimeout);
+			return this;
+		}
+		@Override
+		public TcpSocket.Builder writeTimeout(double writeTimeout) {
+			wrappee.writeTimeout(writeTimeout);
+			return this;
+		}
+		@Override
+		public Connecter create(NinioProvider ninioProvider) {
+			final Connecter connecter = wrappee.create(ninioProvider);
+			return new Connecter() {
+				@Override
+				public void connect(Connection callback) {
+					connecter.connect(callback);
+				}
+				@Override
+				public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+					sends.incrementAndGet();
+					connecter.send(address, buffer, callback);
+				}
+				@Override
+				public void close() {
+					connecter.close();
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testQueuedWritesWrappedTogether() throws Exception {
+		final Trust trust = new Trust("/keystore.jks", "test-password", "/keystore.jks", "test-password");
+		final int port = 8082;
+		int count = 20;
+
+		StringBuilder m = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			m.append((char) ('a' + (i % 26)));
+		}
+		String message = m.toString();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			expected.append(message);
+		}
+
+		try (Ninio ninio = Ninio.create()) {
+			try (Listener server = echoServer(ninio, trust, port)) {
+				CountingTcpSocketBuilder tcp = new CountingTcpSocketBuilder();
+				// Queued during the handshake, one record each
+				Assertions.assertThat(echo(ninio, tcp, trust, port, message, count, null)).isEqualTo(expected.toString());
+				// The handshake messages, then the records several at a time
+				Assertions.assertThat(tcp.sends.get()).isLessThan(count / 2);
+			}
+		}
+	}
 }
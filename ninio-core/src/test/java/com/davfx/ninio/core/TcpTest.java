@@ -1,13 +1,23 @@
 package com.davfx.ninio.core;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
 import com.davfx.ninio.util.Lock;
 import com.davfx.ninio.util.Wait;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 public class TcpTest {
 	@Test
@@ -95,7 +105,284 @@ public class TcpTest {
 	public void testSameToCheckClose() throws Exception {
 		test();
 	}
+
+	private static interface WritingConnection extends Connection, Writing {
+	}
+
+	@Test
+	public void testWritability() throws Exception {
+		final Lock<String, IOException> unwritableLock = new Lock<>();
+		final Lock<String, IOException> writableLock = new Lock<>();
+		
+		try (Ninio ninio = Ninio.create()) {
+			int port = 8080;
+			try (ServerSocket server = new ServerSocket()) {
+				server.setReuseAddress(true);
+				server.bind(new InetSocketAddress(port));
+				
+				try (Connecter client = ninio.create(TcpSocket.builder().to(new Address(Address.LOCALHOST, port)))) {
+					client.connect(new WritingConnection() {
+						@Override
+						public void received(Address address, ByteBuffer buffer) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+						@Override
+						public void failed(IOException e) {
+							unwritableLock.fail(e);
+							writableLock.fail(e);
+						}
+						@Override
+						public void unwritable() {
+							unwritableLock.set("unwritable");
+						}
+						@Override
+						public void writable() {
+							writableLock.set("writable");
+						}
+					});
+					
+					try (Socket accepted = server.accept()) {
+						// Nothing is read until the client is unwritable
+						for (int i = 0; i < 64; i++) {
+							client.send(null, ByteBuffer.allocate(1024 * 1024), new Nop());
+						}
+						Assertions.assertThat(unwritableLock.waitFor()).isEqualTo("unwritable");
+						
+						InputStream in = accepted.getInputStream();
+						byte[] b = new byte[64 * 1024];
+						long total = 0L;
+						while (total < (64L * 1024L * 1024L)) {
+							int r = in.read(b);
+							if (r < 0) {
+								break;
+							}
+							total += r;
+						}
+						Assertions.assertThat(writableLock.waitFor()).isEqualTo("writable");
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSendFile() throws Exception {
+		File file = File.createTempFile(TcpTest.class.getSimpleName(), ".bin");
+		file.deleteOnExit();
+		byte[] content = new byte[3 * 1024 * 1024];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 251);
+		}
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+		int offset = 10;
+		int length = content.length - 20;
+
+		final Lock<String, IOException> sentLock = new Lock<>();
+		
+		try (Ninio ninio = Ninio.create(); FileInputStream fileIn = new FileInputStream(file)) {
+			int port = 8080;
+			try (ServerSocket server = new ServerSocket()) {
+				server.setReuseAddress(true);
+				server.bind(new InetSocketAddress(port));
+				
+				try (Connecter client = ninio.create(TcpSocket.builder().to(new Address(Address.LOCALHOST, port)))) {
+					client.connect(new Nop());
+					client.send(null, ByteBufferUtils.toByteBuffer("<"), new Nop());
+					((FileSender) client).sendFile(fileIn.getChannel(), offset, length, new SendCallback() {
+						@Override
+						public void sent() {
+							sentLock.set("sent");
+						}
+						@Override
+						public void failed(IOException e) {
+							sentLock.fail(e);
+						}
+					});
+					client.send(null, ByteBufferUtils.toByteBuffer(">"), new Nop());
+					
+					try (Socket accepted = server.accept()) {
+						InputStream in = accepted.getInputStream();
+						byte[] b = new byte[length + 2];
+						int total = 0;
+						while (total < b.length) {
+							int r = in.read(b, total, b.length - total);
+							if (r < 0) {
+								break;
+							}
+							total += r;
+						}
+						Assertions.assertThat(total).isEqualTo(b.length);
+						Assertions.assertThat(b[0]).isEqualTo((byte) '<');
+						Assertions.assertThat(Arrays.copyOfRange(b, 1, length + 1)).isEqualTo(Arrays.copyOfRange(content, offset, offset + length));
+						Assertions.assertThat(b[length + 1]).isEqualTo((byte) '>');
+						Assertions.assertThat(sentLock.waitFor()).isEqualTo("sent");
+					}
+				}
+			}
+		}
+	}
+	
+	// Echoes everything received, returned once listening, closing only once the port is free again
+	private static Disconnectable echoServer(Ninio ninio, TcpSocketServer.Builder builder) {
+		return echoServer(ninio.create(builder));
+	}
+	private static Disconnectable echoServer(final Listener server) {
+		Wait serverWaitConnecting = new Wait();
+		final Wait serverWaitClosing = new Wait();
+		server.listen(
+			new WaitConnectedListening(serverWaitConnecting,
+			new WaitClosedListening(serverWaitClosing,
+			new Listening() {
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+				
+				@Override
+				public Connection connecting(final Connected connecting) {
+					return new Connection() {
+						@Override
+						public void received(Address address, ByteBuffer buffer) {
+							// Copied, the buffer may be pooled and released once received() returns
+							ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+							copy.put(buffer);
+							copy.flip();
+							connecting.send(null, copy, new Nop());
+						}
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+					};
+				}
+			})));
+		serverWaitConnecting.waitFor();
+		return new Disconnectable() {
+			@Override
+			public void close() {
+				server.close();
+				serverWaitClosing.waitFor();
+			}
+		};
+	}
+	
+	@Test
+	public void testPooledReadBuffersReleased() throws Exception {
+		PooledByteBufferAllocator pool = new PooledByteBufferAllocator(1024);
+		try (Ninio ninio = Ninio.create()) {
+			int port = 8080;
+			try (Disconnectable server = echoServer(ninio, TcpSocketServer.builder().with(pool).bind(new Address(Address.ANY, port)))) {
+				try (Socket s = new Socket("127.0.0.1", port)) {
+					s.setSoTimeout(5000);
+					for (int i = 0; i < 200; i++) {
+						s.getOutputStream().write(i);
+						Assertions.assertThat(s.getInputStream().read()).isEqualTo(i);
+					}
+					// At most the spare buffer of the pending read
+					Assertions.assertThat(pool.inUse()).isLessThanOrEqualTo(1);
+				}
+			}
+		}
+	}
 	
+	@Test
+	public void testMaxConnectionsPerAddress() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			int port = 8080;
+			try (Disconnectable server = echoServer(ninio, TcpSocketServer.builder().maxConnectionsPerAddress(2).bind(new Address(Address.ANY, port)))) {
+				try (Socket s1 = new Socket("127.0.0.1", port); Socket s2 = new Socket("127.0.0.1", port)) {
+					try (Socket s3 = new Socket("127.0.0.1", port)) {
+						s3.setSoTimeout(5000);
+						Assertions.assertThat(s3.getInputStream().read()).isEqualTo(-1);
+					}
+					s2.setSoTimeout(5000);
+					s2.getOutputStream().write('a');
+					Assertions.assertThat(s2.getInputStream().read()).isEqualTo('a');
+					Assertions.assertThat(Metrics.global().values().get("tcpserver.0.0.0.0-" + port + ".connections")).isEqualTo(2L);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReusePort() throws Exception {
+		try (Ninio ninio = Ninio.create(4)) {
+			int port = 8080;
+			Socket[] sockets = new Socket[8];
+			try {
+				TcpSocketServer listener = (TcpSocketServer) ninio.create(TcpSocketServer.builder().reusePort(true).bind(new Address(Address.ANY, port)));
+				try (Disconnectable server = echoServer(listener)) {
+					// One listening socket per loop
+					Assertions.assertThat(listener.bound()).isEqualTo(4);
+					for (int i = 0; i < sockets.length; i++) {
+						sockets[i] = new Socket("127.0.0.1", port);
+						sockets[i].setSoTimeout(5000);
+					}
+					for (int i = 0; i < sockets.length; i++) {
+						sockets[i].getOutputStream().write('a' + i);
+						Assertions.assertThat(sockets[i].getInputStream().read()).isEqualTo('a' + i);
+					}
+				}
+				// Closing the server closes its connections, whatever the listening socket that accepted them
+				for (Socket s : sockets) {
+					Assertions.assertThat(s.getInputStream().read()).isEqualTo(-1);
+				}
+			} finally {
+				for (Socket s : sockets) {
+					if (s != null) {
+						s.close();
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			int port = 8080;
+			try (Disconnectable server = echoServer(ninio, TcpSocketServer.builder().readTimeout(1d).bind(new Address(Address.ANY, port)))) {
+				try (Socket s = new Socket("127.0.0.1", port)) {
+					s.setSoTimeout(10000);
+					// Kept open while reading
+					for (int i = 0; i < 3; i++) {
+						Thread.sleep(200L);
+						s.getOutputStream().write('a');
+						Assertions.assertThat(s.getInputStream().read()).isEqualTo('a');
+					}
+					Assertions.assertThat(s.getInputStream().read()).isEqualTo(-1);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testScalarTimeoutConfig() throws Exception {
+		Config scalar = ConfigFactory.parseString("timeout = 5 seconds");
+		Assertions.assertThat(TcpSocket.timeout(scalar, "timeout", "idle")).isEqualTo(5d);
+		Assertions.assertThat(TcpSocket.timeout(scalar, "timeout", "read")).isEqualTo(0d);
+		Config object = ConfigFactory.parseString("timeout { idle = 0, read = 2 seconds, write = 3 seconds }");
+		Assertions.assertThat(TcpSocket.timeout(object, "timeout", "idle")).isEqualTo(0d);
+		Assertions.assertThat(TcpSocket.timeout(object, "timeout", "write")).isEqualTo(3d);
+	}
+
 	public static void main(String[] args) throws Exception {
 		try (Ninio ninio = Ninio.create()) {
 			int port = 8080;
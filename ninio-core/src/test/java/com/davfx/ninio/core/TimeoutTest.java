@@ -1,5 +1,9 @@
 package com.davfx.ninio.core;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -50,4 +54,29 @@ public class TimeoutTest {
 
 		}
 	}
+
+	// The ticker is scheduled from one deadline to the next, across the wheel levels
+	@Test
+	public void testDeadlines() throws Exception {
+		try (Timeout timeout = new Timeout()) {
+			int n = 50;
+			final CountDownLatch latch = new CountDownLatch(n);
+			final AtomicInteger early = new AtomicInteger(0);
+			for (int i = 0; i < n; i++) {
+				final double t = 0.01d * (i + 1);
+				final long start = System.nanoTime();
+				timeout.set(t).run(new Runnable() {
+					@Override
+					public void run() {
+						if ((System.nanoTime() - start) < (long) (t * 1000000000d)) {
+							early.incrementAndGet();
+						}
+						latch.countDown();
+					}
+				});
+			}
+			Assertions.assertThat(latch.await(5L, TimeUnit.SECONDS)).isTrue();
+			Assertions.assertThat(early.get()).isEqualTo(0);
+		}
+	}
 }
@@ -79,5 +79,56 @@ public class UdpTest {
 	public void testSameToCheckClose() throws Exception {
 		test();
 	}
+
+	@Test
+	public void testBatch() throws Exception {
+		final Lock<String, IOException> lock = new Lock<>();
+		
+		try (Ninio ninio = Ninio.create()) {
+			int port = 8080;
+	
+			final Wait serverWaitConnecting = new Wait();
+			try (Connecter server = ninio.create(UdpSocket.builder().bind(new Address(Address.ANY, port)))) {
+				server.connect(new BatchReceiver() {
+					private final StringBuilder b = new StringBuilder();
+					@Override
+					public void failed(IOException ioe) {
+						lock.fail(ioe);
+					}
+					@Override
+					public void connected(Address address) {
+						serverWaitConnecting.run();
+					}
+					@Override
+					public void closed() {
+					}
+					
+					@Override
+					public void received(Address address, ByteBuffer buffer) {
+						lock.fail(new IOException("Should have been received as a batch"));
+					}
+					@Override
+					public void received(Address[] addresses, ByteBuffer[] buffers) {
+						for (ByteBuffer buffer : buffers) {
+							b.append(ByteBufferUtils.toString(buffer));
+						}
+						if (b.length() == 10) {
+							lock.set(b.toString());
+						}
+					}
+				});
+
+				serverWaitConnecting.waitFor();
+
+				try (Connecter client = ninio.create(UdpSocket.builder())) {
+					client.connect(new Nop());
+					for (int i = 0; i < 10; i++) {
+						client.send(new Address(Address.LOCALHOST, port), ByteBufferUtils.toByteBuffer(String.valueOf(i)), new Nop());
+					}
+					Assertions.assertThat(lock.waitFor()).isEqualTo("0123456789");
+				}
+			}
+		}
+	}
 	
 }
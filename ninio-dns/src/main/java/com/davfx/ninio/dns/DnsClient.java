@@ -21,6 +21,7 @@ import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.UdpSocket;
 import com.davfx.ninio.dns.dependencies.Dependencies;
@@ -210,7 +211,8 @@ public final class DnsClient implements DnsConnecter {
 	public void connect(final DnsConnection callback) {
 		connecter.connect(new Connection() {
 			@Override
-			public void received(final Address address, final ByteBuffer packet) {
+			public void received(final Address address, ByteBuffer receivedPacket) {
+				final ByteBuffer packet = PooledByteBufferAllocator.copyIfPooled(receivedPacket); // Used from the executor
 				executor.execute(new Runnable() {
 					private String readName(ByteBuffer packet, ByteBuffer buffer) {
 						if (buffer.remaining() > 1) {
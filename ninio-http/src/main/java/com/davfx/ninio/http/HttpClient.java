@@ -19,6 +19,7 @@ import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.Failing;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.SecureSocketBuilder;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.TcpSocket;
@@ -222,14 +223,19 @@ public final class HttpClient implements HttpConnecter {
 							c.connect(new Connection() {
 								@Override
 								public void received(Address address, final ByteBuffer buffer) {
+									PooledByteBufferAllocator.retainBuffer(buffer); // Used from the executor
 									executor.execute(new Runnable() {
 										@Override
 										public void run() {
-											while (buffer.hasRemaining()) {
-												if (receiver == null) {
-													break;
+											try {
+												while (buffer.hasRemaining()) {
+													if (receiver == null) {
+														break;
+													}
+													receiver.received(null, buffer);
 												}
-												receiver.received(null, buffer);
+											} finally {
+												PooledByteBufferAllocator.releaseBuffer(buffer);
 											}
 										}
 									});
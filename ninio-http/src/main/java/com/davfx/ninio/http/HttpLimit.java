@@ -10,7 +10,19 @@ public final class HttpLimit {
 	private HttpLimit() {
 	}
 	
-	public static HttpRequestBuilder wrap(final Limit l, final int max, final HttpRequestBuilder wrappee) {
+	public static HttpRequestBuilder wrap(Limit l, int max, HttpRequestBuilder wrappee) {
+		return wrap(l, max, false, wrappee);
+	}
+	
+	/**
+	 * Limits the requests by destination: at most max requests at the same time to each address.
+	 * Can wrap or be wrapped by {@link #wrap(Limit, int, HttpRequestBuilder)} to limit both.
+	 */
+	public static HttpRequestBuilder wrapByAddress(Limit l, int max, HttpRequestBuilder wrappee) {
+		return wrap(l, max, true, wrappee);
+	}
+	
+	private static HttpRequestBuilder wrap(final Limit l, final int max, final boolean byAddress, final HttpRequestBuilder wrappee) {
 		return new HttpRequestBuilder() {
 			@Override
 			public HttpRequestBuilder maxRedirections(int maxRedirections) {
@@ -23,7 +35,7 @@ public final class HttpLimit {
 
 			@Override
 			public HttpRequestBuilderHttpContentSender build(HttpRequest request) {
-				m = l.inc(max);
+				m = byAddress ? l.inc(request.address, max) : l.inc(max);
 				final HttpContentSender s = wrappee.build(request);
 
 				sender = new HttpContentSender() {
@@ -19,6 +19,7 @@ import com.davfx.ninio.core.Listening;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.SendCallback;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
@@ -221,7 +222,8 @@ public final class HttpListening implements Listening {
 			private boolean closed = false;
 			
 			@Override
-			public void received(Address address, final ByteBuffer buffer) {
+			public void received(Address address, ByteBuffer receivedBuffer) {
+				final ByteBuffer buffer = PooledByteBufferAllocator.copyIfPooled(receivedBuffer); // Held until read
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
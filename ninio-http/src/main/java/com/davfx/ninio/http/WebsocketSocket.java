@@ -47,6 +47,26 @@ public final class WebsocketSocket implements Connecter {
 				return this;
 			}
 			
+			@Override
+			public TcpSocket.Builder cork(boolean cork) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder idleTimeout(double idleTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder readTimeout(double readTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder writeTimeout(double writeTimeout) {
+				return this;
+			}
+			
 			@Override
 			public Builder to(Address connectAddress) {
 				this.connectAddress = connectAddress;
@@ -15,6 +15,7 @@ import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.RawSocket;
 
 public final class PingClient implements PingConnecter {
@@ -79,7 +80,8 @@ public final class PingClient implements PingConnecter {
 	public void connect(final PingConnection callback) {
 		connecter.connect(new Connection() {
 			@Override
-			public void received(Address address, final ByteBuffer buffer) {
+			public void received(Address address, ByteBuffer receivedBuffer) {
+				final ByteBuffer buffer = PooledByteBufferAllocator.copyIfPooled(receivedBuffer); // Used from the executor
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
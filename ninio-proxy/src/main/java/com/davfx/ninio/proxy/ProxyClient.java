@@ -14,6 +14,7 @@ import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.RawSocket;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.TcpSocket;
@@ -187,6 +188,26 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public TcpSocket.Builder cork(boolean cork) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder idleTimeout(double idleTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder readTimeout(double readTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder writeTimeout(double writeTimeout) {
+				return this;
+			}
+			
 			@Override
 			public TcpSocket.Builder to(Address connectAddress) {
 				this.connectAddress = connectAddress;
@@ -215,6 +236,26 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public TcpSocket.Builder cork(boolean cork) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder idleTimeout(double idleTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder readTimeout(double readTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder writeTimeout(double writeTimeout) {
+				return this;
+			}
+			
 			@Override
 			public TcpSocket.Builder to(Address connectAddress) {
 				this.connectAddress = connectAddress;
@@ -241,6 +282,11 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public UdpSocket.Builder batch(int batch) {
+				return this;
+			}
+			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
 				return createConnector(new ProxyHeader(ProxyCommons.Types.UDP), null);
@@ -341,6 +387,26 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public TcpSocket.Builder cork(boolean cork) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder idleTimeout(double idleTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder readTimeout(double readTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder writeTimeout(double writeTimeout) {
+				return this;
+			}
+			
 			@Override
 			public TcpSocket.Builder with(ByteBufferAllocator byteBufferAllocator) {
 				return this;
@@ -382,6 +448,26 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public TcpSocket.Builder cork(boolean cork) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder idleTimeout(double idleTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder readTimeout(double readTimeout) {
+				return this;
+			}
+			
+			@Override
+			public TcpSocket.Builder writeTimeout(double writeTimeout) {
+				return this;
+			}
+			
 			@Override
 			public TcpSocket.Builder with(ByteBufferAllocator byteBufferAllocator) {
 				return this;
@@ -545,7 +631,8 @@ public final class ProxyClient implements ProxyProvider {
 							}
 							
 							@Override
-							public void received(Address receivedAddress, final ByteBuffer receivedBuffer) {
+							public void received(Address receivedAddress, ByteBuffer pooledBuffer) {
+								final ByteBuffer receivedBuffer = PooledByteBufferAllocator.copyIfPooled(pooledBuffer); // Used from the executor
 								proxyExecutor.execute(new Runnable() {
 									@Override
 									public void run() {
@@ -14,10 +14,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.BatchReceiver;
 import com.davfx.ninio.core.Connecter;
-import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.UdpSocket;
 import com.davfx.ninio.snmp.dependencies.Dependencies;
@@ -176,45 +177,31 @@ public final class SnmpClient implements SnmpConnecter {
 	}
 	@Override
 	public void connect(final SnmpConnection callback) {
-		connecter.connect(new Connection() {
+		connecter.connect(new BatchReceiver() {
 			@Override
 			public void received(final Address address, final ByteBuffer buffer) {
+				PooledByteBufferAllocator.retainBuffer(buffer); // Used from the executor
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						LOGGER.trace("Received SNMP packet, size = {}", buffer.remaining());
-						int instanceId;
-						int errorStatus;
-						int errorIndex;
-						Iterable<SnmpResult> results;
-						AuthRemoteEnginePendingRequestManager authRemoteEnginePendingRequestManager = authRemoteEngines.get(address);
-						boolean ready;
-						if (authRemoteEnginePendingRequestManager != null) {
-							ready = authRemoteEnginePendingRequestManager.isReady();
-						} else {
-							ready = true;
-						}
 						try {
-							SnmpPacketParser parser = new SnmpPacketParser((authRemoteEnginePendingRequestManager == null) ? null : authRemoteEnginePendingRequestManager.engine, buffer);
-							instanceId = parser.getRequestId();
-							errorStatus = parser.getErrorStatus();
-							errorIndex = parser.getErrorIndex();
-							results = parser.getResults();
-						} catch (Exception e) {
-							LOGGER.error("Invalid packet", e);
-							return;
+							handle(address, buffer);
+						} finally {
+							PooledByteBufferAllocator.releaseBuffer(buffer);
 						}
-						
-						if (authRemoteEnginePendingRequestManager != null) {
-							if (ready && (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_NOT_SYNCED)) {
-								authRemoteEnginePendingRequestManager.reset();
-							}
-
-							authRemoteEnginePendingRequestManager.discoverIfNecessary(address, connecter);
-							authRemoteEnginePendingRequestManager.sendPendingRequestsIfReady(address, connecter);
+					}
+				});
+			}
+			
+			@Override
+			public void received(final Address[] addresses, final ByteBuffer[] buffers) {
+				// A whole burst of responses is handled with a single executor hop
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < addresses.length; i++) {
+							handle(addresses[i], buffers[i]);
 						}
-						
-						instanceMapper.handle(instanceId, errorStatus, errorIndex, results);
 					}
 				});
 			}
@@ -256,6 +243,42 @@ public final class SnmpClient implements SnmpConnecter {
 		});
 	}
 	
+	private void handle(Address address, ByteBuffer buffer) {
+		LOGGER.trace("Received SNMP packet, size = {}", buffer.remaining());
+		int instanceId;
+		int errorStatus;
+		int errorIndex;
+		Iterable<SnmpResult> results;
+		AuthRemoteEnginePendingRequestManager authRemoteEnginePendingRequestManager = authRemoteEngines.get(address);
+		boolean ready;
+		if (authRemoteEnginePendingRequestManager != null) {
+			ready = authRemoteEnginePendingRequestManager.isReady();
+		} else {
+			ready = true;
+		}
+		try {
+			SnmpPacketParser parser = new SnmpPacketParser((authRemoteEnginePendingRequestManager == null) ? null : authRemoteEnginePendingRequestManager.engine, buffer);
+			instanceId = parser.getRequestId();
+			errorStatus = parser.getErrorStatus();
+			errorIndex = parser.getErrorIndex();
+			results = parser.getResults();
+		} catch (Exception e) {
+			LOGGER.error("Invalid packet", e);
+			return;
+		}
+		
+		if (authRemoteEnginePendingRequestManager != null) {
+			if (ready && (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_NOT_SYNCED)) {
+				authRemoteEnginePendingRequestManager.reset();
+			}
+
+			authRemoteEnginePendingRequestManager.discoverIfNecessary(address, connecter);
+			authRemoteEnginePendingRequestManager.sendPendingRequestsIfReady(address, connecter);
+		}
+		
+		instanceMapper.handle(instanceId, errorStatus, errorIndex, results);
+	}
+	
 	@Override
 	public void close() {
 		executor.execute(new Runnable() {
@@ -9,8 +9,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.BatchReceiver;
 import com.davfx.ninio.core.Connecter;
-import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.Disconnectable;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
@@ -59,7 +59,7 @@ public final class SnmpServer implements Disconnectable {
 	private SnmpServer(final Connecter connecter, final SnmpServerHandler handler) {
 		this.connecter = connecter;
 		
-		connecter.connect(new Connection() {
+		connecter.connect(new BatchReceiver() {
 			@Override
 			public void connected(Address address) {
 				handler.connected(address);
@@ -75,6 +75,13 @@ public final class SnmpServer implements Disconnectable {
 				handler.failed(ioe);
 			}
 			
+			@Override
+			public void received(Address[] addresses, ByteBuffer[] buffers) {
+				for (int i = 0; i < addresses.length; i++) {
+					received(addresses[i], buffers[i]);
+				}
+			}
+			
 			@Override
 			public void received(Address address, ByteBuffer buffer) {
 				int requestId;
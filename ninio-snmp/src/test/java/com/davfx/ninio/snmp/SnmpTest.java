@@ -1,5 +1,6 @@
 package com.davfx.ninio.snmp;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
@@ -146,6 +147,101 @@ public class SnmpTest {
 	
 	@Test
 	public void testWithCache() throws Exception {
+		testWithCache(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter()));
+	}
+	
+	@Test
+	public void testWithOffHeapCache() throws Exception {
+		testWithCache(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter()).offHeap(1024 * 1024));
+	}
+	
+	@Test
+	public void testWithDatabase() throws Exception {
+		File database = File.createTempFile(SnmpTest.class.getName(), null);
+		database.deleteOnExit();
+		database.delete();
+		testWithCache(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter()).dataExpiration(60d).requestExpiration(10d).database(database));
+		// Restarted, responses are served from the database while fresh requests are sent
+		testWithCache(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter()).dataExpiration(60d).requestExpiration(10d).database(database));
+		database.delete();
+	}
+	
+	@Test
+	public void testWithStaleWhileRevalidate() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			TreeMap<Oid, String> map = new TreeMap<>();
+			map.put(new Oid("1.1.1"), "val1.1.1");
+			map.put(new Oid("1.1.2"), "val1.1.2");
+
+			final SnmpServerHandler handler = new FromMapSnmpServerHandler(map, new SnmpServerHandler() {
+				@Override
+				public void from(Oid oid, Callback callback) {
+				}
+				@Override
+				public void failed(IOException ioe) {
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+			});
+			
+			int port = 8080;
+			final Wait waitServer = new Wait();
+			try (Disconnectable snmpServer = ninio.create(SnmpServer.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, port)))
+				.handle(new SnmpServerHandler() {
+					private int n = 0;
+					@Override
+					public void from(Oid oid, final Callback callback) {
+						final int k = n;
+						LOGGER.debug("******* {} {}", oid, k);
+						n++;
+						handler.from(oid, new Callback() {
+							@Override
+							public boolean handle(SnmpResult result) {
+								return callback.handle(new SnmpResult(result.oid, result.value + "/" + k));
+							}
+						});
+					}
+					@Override
+					public void closed() {
+						waitServer.run();
+					}
+					@Override
+					public void connected(Address address) {
+					}
+					@Override
+					public void failed(IOException ioe) {
+					}
+				}))) {
+				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter()).dataExpiration(0.5d).requestExpiration(0.5d).staleWhileRevalidate(60d)))) {
+					snmpClient.connect(new SnmpConnection() {
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+					});
+					Assertions.assertThat(get(snmpClient, new Address(Address.LOCALHOST, port), new Oid("1.1.1")).toString()).isEqualTo("[1.1.1:val1.1.1/0]");
+					Thread.sleep(700);
+					// Stale, served while a request refreshes it
+					Assertions.assertThat(get(snmpClient, new Address(Address.LOCALHOST, port), new Oid("1.1.1")).toString()).isEqualTo("[1.1.1:val1.1.1/0]");
+					Thread.sleep(200);
+					Assertions.assertThat(get(snmpClient, new Address(Address.LOCALHOST, port), new Oid("1.1.1")).toString()).isEqualTo("[1.1.1:val1.1.1/1]");
+					Assertions.assertThat(get(snmpClient, new Address(Address.LOCALHOST, port), new Oid("1.1.2")).toString()).isEqualTo("[1.1.2:val1.1.2/2]");
+				}
+			}
+			waitServer.waitFor();
+		}
+	}
+	
+	private static void testWithCache(InMemoryCache.Builder<Integer> cache) throws Exception {
 		try (Ninio ninio = Ninio.create()) {
 			TreeMap<Oid, String> map = new TreeMap<>();
 			map.put(new Oid("1.1.1"), "val1.1.1");
@@ -207,7 +303,7 @@ public class SnmpTest {
 					public void failed(IOException ioe) {
 					}
 				}))) {
-				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(InMemoryCache.<Integer>builder().using(new SnmpInMemoryCacheInterpreter())))) {
+				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(cache))) {
 					snmpClient.connect(new SnmpConnection() {
 						@Override
 						public void failed(IOException ioe) {
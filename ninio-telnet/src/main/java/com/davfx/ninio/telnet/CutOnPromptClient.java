@@ -16,6 +16,7 @@ import com.davfx.ninio.core.Disconnectable;
 import com.davfx.ninio.core.InMemoryBuffers;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 import com.davfx.ninio.core.SendCallback;
 import com.google.common.base.Charsets;
 
@@ -152,7 +153,8 @@ public final class CutOnPromptClient implements Disconnectable {
 				cuttingReceiver = new CuttingReceiver(limit, new Connection() {
 					private InMemoryBuffers buffers = null;
 					@Override
-					public void received(Address address, final ByteBuffer buffer) {
+					public void received(Address address, ByteBuffer receivedBuffer) {
+						final ByteBuffer buffer = PooledByteBufferAllocator.copyIfPooled(receivedBuffer); // Used from the executor
 						executor.execute(new Runnable() {
 							@Override
 							public void run() {
@@ -8,6 +8,7 @@ import java.util.List;
 
 import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.PooledByteBufferAllocator;
 
 final class CuttingReceiver implements Connection {
 
@@ -127,7 +128,7 @@ final class CuttingReceiver implements Connection {
 			if (previous == null) {
 				previous = new ArrayList<>();
 			}
-			previous.add(buffer.duplicate());
+			previous.add(PooledByteBufferAllocator.copyIfPooled(buffer).duplicate()); // Kept for the next calls
 			int position = find(currentPrompt, previous);
 			
 			int lengthToKeep = currentPrompt.remaining() - 1;
@@ -0,0 +1,110 @@
+package com.davfx.ninio.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+/**
+ * Threads shared by the background tasks of the whole process, all daemons:
+ * <ul>
+ * <li>a scheduler of {@code housekeeping.scheduler.threads} threads, for the short delayed or periodic tasks (e.g. timeout ticks, metrics logging, delayed closes);</li>
+ * <li>workers for the tasks that may block or run long (e.g. {@link SerialExecutor} strands, process readers), created when all are busy
+ * and stopped after {@code housekeeping.workers.idle} without work.</li>
+ * </ul>
+ * A failing task is logged, and a periodic one keeps being run.
+ */
+public final class Housekeeping {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Housekeeping.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new com.davfx.ninio.util.dependencies.Dependencies()).getConfig(Housekeeping.class.getPackage().getName());
+	private static final int SCHEDULER_THREADS = CONFIG.getInt("housekeeping.scheduler.threads");
+	private static final double WORKERS_IDLE = ConfigUtils.getDuration(CONFIG, "housekeeping.workers.idle");
+
+	private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, new ClassThreadFactory(Housekeeping.class, "scheduler", true));
+	static {
+		SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+	private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(0, Integer.MAX_VALUE, (long) (WORKERS_IDLE * 1000d), TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ClassThreadFactory(Housekeeping.class, "worker", true));
+
+	private Housekeeping() {
+	}
+
+	private static Runnable safe(final Runnable runnable) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in housekeeping task", t);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Runs the given short task on the scheduler after the given delay (in seconds).
+	 */
+	public static ScheduledFuture<?> schedule(Runnable runnable, double delay) {
+		return SCHEDULER.schedule(safe(runnable), (long) (delay * 1000000000d), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs the given short task on the scheduler every period (in seconds), after the given delay, until the returned future is canceled.
+	 */
+	public static ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, double delay, double period) {
+		return SCHEDULER.scheduleAtFixedRate(safe(runnable), (long) (delay * 1000000000d), Math.max(1L, (long) (period * 1000000000d)), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs the given task on a worker.
+	 */
+	public static void execute(Runnable runnable) {
+		WORKERS.execute(safe(runnable));
+	}
+
+	/**
+	 * Runs the given task on a worker, named after the given name meanwhile.
+	 */
+	public static void execute(final String name, final Runnable runnable) {
+		WORKERS.execute(new Runnable() {
+			@Override
+			public void run() {
+				Thread thread = Thread.currentThread();
+				String workerName = thread.getName();
+				thread.setName(name);
+				try {
+					runnable.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in housekeeping task", t);
+				} finally {
+					thread.setName(workerName);
+				}
+			}
+		});
+	}
+
+	public static int schedulerThreads() {
+		return SCHEDULER.getPoolSize();
+	}
+
+	public static int scheduledTasks() {
+		return SCHEDULER.getQueue().size();
+	}
+
+	public static int workerThreads() {
+		return WORKERS.getPoolSize();
+	}
+
+	public static int activeWorkerThreads() {
+		return WORKERS.getActiveCount();
+	}
+}
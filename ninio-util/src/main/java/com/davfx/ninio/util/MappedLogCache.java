@@ -0,0 +1,349 @@
+package com.davfx.ninio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.typesafe.config.Config;
+
+/**
+ * Persistent cache of byte buffers, kept in an append-only log file mapped in memory, of at most {@link Builder#capacity(long) capacity} bytes.
+ * Only the keys and their position in the log are on the heap. The index is rebuilt from the log when the cache is opened,
+ * so that the entries written before a restart can be served at once.
+ * <p>
+ * Each record is checksummed: the log is read up to the first incomplete or corrupted record. When the log is full, the expired and replaced
+ * records are dropped by compacting it in place, the oldest entries being evicted if this is not enough.
+ * <p>
+ * Timestamps are wall clock ({@link DateUtils#now()}), so that expiration survives restarts. Writes reach the disk when the system flushes the mapping,
+ * or on {@link #close()}. All methods are synchronized.
+ */
+public final class MappedLogCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedLogCache.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new com.davfx.ninio.util.dependencies.Dependencies()).getConfig(MappedLogCache.class.getPackage().getName());
+	private static final long DEFAULT_CAPACITY = CONFIG.getBytes("cache.mapped.capacity").longValue();
+
+	private static final int MAGIC = 0x4e4c4f47; // NLOG
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 16; // Key length (0 marks the end of the log), value length, timestamp
+	private static final int RECORD_FOOTER_SIZE = 4; // CRC32 of the lengths, key and value
+	private static final long REMOVED = Long.MIN_VALUE; // Timestamp of the removed records, not covered by the CRC
+	private static final int END_SIZE = 4;
+
+	public static interface Builder {
+		Builder expireAfterWrite(double expiration);
+		Builder capacity(long capacity);
+		MappedLogCache build(File file) throws IOException;
+	}
+
+	public static Builder builder() {
+		return new Builder() {
+			private double expirationAfterWrite = 0d;
+			private long capacity = DEFAULT_CAPACITY;
+
+			@Override
+			public Builder expireAfterWrite(double expiration) {
+				expirationAfterWrite = expiration;
+				return this;
+			}
+			@Override
+			public Builder capacity(long capacity) {
+				this.capacity = capacity;
+				return this;
+			}
+
+			@Override
+			public MappedLogCache build(File file) throws IOException {
+				return new MappedLogCache(file, expirationAfterWrite, capacity);
+			}
+		};
+	}
+
+	private static final class Entry {
+		public final int position; // Of the record
+		public final int keyLength;
+		public final int valueLength;
+		public final long timestamp;
+
+		public Entry(int position, int keyLength, int valueLength, long timestamp) {
+			this.position = position;
+			this.keyLength = keyLength;
+			this.valueLength = valueLength;
+			this.timestamp = timestamp;
+		}
+
+		public int size() {
+			return RECORD_HEADER_SIZE + keyLength + valueLength + RECORD_FOOTER_SIZE;
+		}
+	}
+
+	private final File file;
+	private final long expirationAfterWrite; // Milliseconds
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final Map<String, Entry> index = new LinkedHashMap<>(); // In write order, which is also the order of the records in the log
+	private int top;
+	private long live = 0L;
+	private long compactions = 0L;
+	private long evictions = 0L;
+	private boolean closed = false;
+
+	private MappedLogCache(File file, double expirationAfterWrite, long capacity) throws IOException {
+		this.file = file;
+		this.expirationAfterWrite = (long) (expirationAfterWrite * 1000d);
+
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = Math.min(Integer.MAX_VALUE, Math.max(capacity, channel.size()));
+			if (size < (HEADER_SIZE + END_SIZE)) {
+				throw new IOException("Capacity too small: " + capacity);
+			}
+			this.capacity = (int) size;
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, this.capacity);
+		} catch (IOException ioe) {
+			raf.close();
+			throw ioe;
+		}
+
+		if ((buffer.getInt(0) == MAGIC) && (buffer.getInt(4) == VERSION)) {
+			load();
+		} else {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			top = HEADER_SIZE;
+			buffer.putInt(top, 0);
+		}
+	}
+
+	private boolean expired(long timestamp, long now) {
+		return (expirationAfterWrite > 0L) && ((now - timestamp) >= expirationAfterWrite);
+	}
+
+	private static long now() {
+		return (long) (DateUtils.now() * 1000d);
+	}
+
+	private static int crc(byte[] record, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, 8);
+		crc.update(record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE);
+		return (int) crc.getValue();
+	}
+
+	private void load() {
+		long now = now();
+		int p = HEADER_SIZE;
+		int expired = 0;
+		while (true) {
+			if ((p + RECORD_HEADER_SIZE) > capacity) {
+				break;
+			}
+			int keyLength = buffer.getInt(p);
+			if (keyLength == 0) {
+				break;
+			}
+			int valueLength = buffer.getInt(p + 4);
+			if ((keyLength < 0) || (valueLength < 0) || (((long) p + RECORD_HEADER_SIZE + keyLength + valueLength + RECORD_FOOTER_SIZE + END_SIZE) > capacity)) {
+				LOGGER.warn("Invalid record in {} at {}, following records ignored", file, p);
+				break;
+			}
+			long timestamp = buffer.getLong(p + 8);
+
+			Entry e = new Entry(p, keyLength, valueLength, timestamp);
+			byte[] record = new byte[e.size()];
+			ByteBuffer b = buffer.duplicate();
+			b.position(p);
+			b.get(record);
+			if (crc(record, record.length - RECORD_FOOTER_SIZE) != ByteBuffer.wrap(record).getInt(record.length - RECORD_FOOTER_SIZE)) {
+				LOGGER.warn("Corrupted record in {} at {}, following records ignored", file, p);
+				break;
+			}
+			p += e.size();
+
+			if (timestamp == REMOVED) {
+				continue;
+			}
+			if (expired(timestamp, now)) {
+				expired++;
+				continue;
+			}
+			String key = new String(record, RECORD_HEADER_SIZE, keyLength, Charsets.UTF_8);
+			Entry old = index.remove(key);
+			if (old != null) {
+				unlink(old);
+			}
+			index.put(key, e);
+			live += e.size();
+		}
+		top = p;
+		buffer.putInt(top, 0);
+		LOGGER.debug("{} entries loaded from {} ({} expired)", index.size(), file, expired);
+	}
+
+	private void unlink(Entry e) {
+		live -= e.size();
+		buffer.putLong(e.position + 8, REMOVED);
+	}
+
+	// Slides the records of the index toward the beginning of the log, dropping the expired ones
+	private void compact(long now) {
+		int p = HEADER_SIZE;
+		Iterator<Map.Entry<String, Entry>> i = index.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<String, Entry> me = i.next();
+			Entry e = me.getValue();
+			if (expired(e.timestamp, now)) {
+				i.remove();
+				unlink(e);
+				continue;
+			}
+			if (e.position != p) {
+				byte[] record = new byte[e.size()];
+				ByteBuffer b = buffer.duplicate();
+				b.position(e.position);
+				b.get(record);
+				b.position(p);
+				b.put(record);
+				me.setValue(new Entry(p, e.keyLength, e.valueLength, e.timestamp));
+			}
+			p += e.size();
+		}
+		top = p;
+		buffer.putInt(top, 0);
+		compactions++;
+		LOGGER.trace("Log compacted, {} bytes kept", top - HEADER_SIZE);
+	}
+
+	public synchronized void put(String key, ByteBuffer value) {
+		if (closed) {
+			return;
+		}
+		long now = now();
+
+		Entry old = index.remove(key);
+		if (old != null) {
+			unlink(old);
+		}
+
+		byte[] k = key.getBytes(Charsets.UTF_8);
+		int size = RECORD_HEADER_SIZE + k.length + value.remaining() + RECORD_FOOTER_SIZE;
+		if ((k.length == 0) || (size > (capacity - HEADER_SIZE - END_SIZE))) {
+			LOGGER.trace("Value too large to be cached: {} bytes", value.remaining());
+			return;
+		}
+
+		if ((top + size + END_SIZE) > capacity) {
+			Iterator<Entry> i = index.values().iterator();
+			while (i.hasNext() && ((HEADER_SIZE + live + size + END_SIZE) > capacity)) {
+				Entry eldest = i.next();
+				i.remove();
+				unlink(eldest);
+				if (!expired(eldest.timestamp, now)) {
+					evictions++;
+				}
+			}
+			compact(now);
+		}
+
+		byte[] record = new byte[size];
+		ByteBuffer r = ByteBuffer.wrap(record);
+		r.putInt(k.length);
+		r.putInt(value.remaining());
+		r.putLong(now);
+		r.put(k);
+		r.put(value.duplicate());
+		r.putInt(crc(record, size - RECORD_FOOTER_SIZE));
+
+		// The end marker is written first, so that the record is never followed by stale data
+		buffer.putInt(top + size, 0);
+		ByteBuffer b = buffer.duplicate();
+		b.position(top);
+		b.put(record);
+
+		Entry e = new Entry(top, k.length, size - RECORD_HEADER_SIZE - k.length - RECORD_FOOTER_SIZE, now);
+		index.put(key, e);
+		live += size;
+		top += size;
+	}
+
+	public synchronized ByteBuffer get(String key) {
+		if (closed) {
+			return null;
+		}
+		Entry e = index.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (expired(e.timestamp, now())) {
+			index.remove(key);
+			unlink(e);
+			return null;
+		}
+
+		ByteBuffer src = buffer.duplicate();
+		int from = e.position + RECORD_HEADER_SIZE + e.keyLength;
+		src.position(from).limit(from + e.valueLength);
+		ByteBuffer b = ByteBuffer.allocate(e.valueLength);
+		b.put(src);
+		b.flip();
+		return b;
+	}
+
+	public synchronized void remove(String key) {
+		Entry e = index.remove(key);
+		if (e != null) {
+			unlink(e);
+		}
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized long compactions() {
+		return compactions;
+	}
+
+	/**
+	 * Entries removed to make room for new values.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Flushes the log to the disk. The mapping itself is released by the garbage collector.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		index.clear();
+		try {
+			buffer.force();
+		} catch (Exception e) {
+			LOGGER.error("Could not flush {}", file, e);
+		}
+		try {
+			raf.close();
+		} catch (IOException ioe) {
+			LOGGER.error("Could not close {}", file, ioe);
+		}
+	}
+}
@@ -1,33 +1,75 @@
 package com.davfx.ninio.util;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.typesafe.config.Config;
 
+/**
+ * Thread-safe cache, split into {@code cache.concurrency} independently locked segments.
+ * <p>
+ * Each segment keeps its entries in access order and in write order, so that expired entries are always at the head of these lists:
+ * they are removed a few at a time by the operations on their segment, never by walking the whole cache.
+ * The {@link Builder#limitedTo(int) limit} applies to the total weight of the entries (their number, unless {@link Builder#with(Weigher) weighed}),
+ * the least recently accessed entries of a segment being evicted first.
+ * A weighed cache is not split, so that any entry up to the limit fits.
+ * <p>
+ * {@link #keys()}, {@link #values()} and {@link #entries()} are snapshots, in access order.
+ */
 public final class MemoryCache<K, V> {
-	
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryCache.class);
+
 	private static final Config CONFIG = ConfigUtils.load(new com.davfx.ninio.util.dependencies.Dependencies()).getConfig(MemoryCache.class.getPackage().getName());
-	private static final double DEFAULT_CHECK_TIME = ConfigUtils.getDuration(CONFIG, "cache.default.check");
+	private static final int CONCURRENCY = CONFIG.getInt("cache.concurrency");
+	private static final int MIN_SEGMENT_LIMIT = 16;
+
+	public static interface Weigher<K, V> {
+		int weigh(K key, V value);
+	}
+
+	/**
+	 * Called, outside of any lock, for the entries removed because they expired or to respect the limit (not for those removed, replaced or cleared explicitly).
+	 */
+	public static interface Listener<K, V> {
+		void evicted(K key, V value);
+	}
 
 	public static interface Builder<K, V> {
 		Builder<K, V> expireAfterAccess(double expiration);
 		Builder<K, V> expireAfterWrite(double expiration);
+		/**
+		 * @deprecated Expired entries are removed incrementally, this is ignored
+		 */
+		@Deprecated
 		Builder<K, V> check(double checkTime);
 		Builder<K, V> limitedTo(int limit);
+		Builder<K, V> with(Weigher<? super K, ? super V> weigher);
+		Builder<K, V> with(Listener<? super K, ? super V> listener);
+		/**
+		 * Maximum number of segments ({@code cache.concurrency} by default), 1 for caches only used under an external lock.
+		 */
+		Builder<K, V> concurrency(int concurrency);
 		MemoryCache<K, V> build();
 	}
-	
+
 	public static <K, V> Builder<K, V> builder() {
 		return new Builder<K, V>() {
 			private double expirationAfterAccess = 0d;
 			private double expirationAfterWrite = 0d;
-			private double checkTime = DEFAULT_CHECK_TIME;
 			private int limit = 0;
+			private Weigher<? super K, ? super V> weigher = null;
+			private Listener<? super K, ? super V> listener = null;
+			private int concurrency = CONCURRENCY;
 
 			@Override
 			public Builder<K, V> expireAfterAccess(double expiration) {
@@ -44,210 +86,358 @@ public final class MemoryCache<K, V> {
 				this.limit = limit;
 				return this;
 			}
+			@Deprecated
 			@Override
 			public Builder<K, V> check(double checkTime) {
-				this.checkTime = checkTime;
 				return this;
 			}
-			
+			@Override
+			public Builder<K, V> with(Weigher<? super K, ? super V> weigher) {
+				this.weigher = weigher;
+				return this;
+			}
+			@Override
+			public Builder<K, V> with(Listener<? super K, ? super V> listener) {
+				this.listener = listener;
+				return this;
+			}
+			@Override
+			public Builder<K, V> concurrency(int concurrency) {
+				this.concurrency = concurrency;
+				return this;
+			}
+
 			@Override
 			public MemoryCache<K, V> build() {
-				return new MemoryCache<>(expirationAfterAccess, expirationAfterWrite, limit, checkTime);
+				return new MemoryCache<>(expirationAfterAccess, expirationAfterWrite, limit, weigher, listener, concurrency);
 			}
 		};
 	}
-	
-	private static final class Element<V> {
+
+	private static final class Node<K, V> {
+		public final K key;
+		public final V v;
+		public final int weight;
 		public double writeTimestamp;
 		public double accessTimestamp;
-		public final V v;
-		public Element(V v) {
+		public long accessNanos; // Only used to sort snapshots across segments, guarded by the segment lock
+
+		// Circular lists with a sentinel
+		public Node<K, V> accessPrevious = this;
+		public Node<K, V> accessNext = this;
+		public Node<K, V> writePrevious = this;
+		public Node<K, V> writeNext = this;
+
+		public Node(K key, V v, int weight) {
+			this.key = key;
 			this.v = v;
+			this.weight = weight;
+		}
+	}
+
+	// Copied under the segment lock, sorted out of it
+	private static final class Snapshot<K, V> {
+		public final long accessNanos;
+		public final K key;
+		public final V v;
+
+		public Snapshot(Node<K, V> n) {
+			accessNanos = n.accessNanos;
+			key = n.key;
+			v = n.v;
+		}
+	}
+
+	private static final Comparator<Snapshot<?, ?>> ORDER_COMPARATOR = new Comparator<Snapshot<?, ?>>() {
+		@Override
+		public int compare(Snapshot<?, ?> a, Snapshot<?, ?> b) {
+			return Long.compare(a.accessNanos - b.accessNanos, 0L);
+		}
+	};
+
+	private final class Segment {
+		private final long limit;
+		private final Map<K, Node<K, V>> map = new HashMap<>();
+		private final Node<K, V> accessSentinel = new Node<>(null, null, 0); // Least recently accessed after it
+		private final Node<K, V> writeSentinel = new Node<>(null, null, 0); // Least recently written after it
+		private long weight = 0L;
+		private List<Node<K, V>> evicted = null; // To notify once out of the lock
+
+		public Segment(long limit) {
+			this.limit = limit;
+		}
+
+		private void accessed(Node<K, V> n) {
+			n.accessPrevious.accessNext = n.accessNext;
+			n.accessNext.accessPrevious = n.accessPrevious;
+			n.accessPrevious = accessSentinel.accessPrevious;
+			n.accessNext = accessSentinel;
+			accessSentinel.accessPrevious.accessNext = n;
+			accessSentinel.accessPrevious = n;
+		}
+
+		private void add(Node<K, V> n) {
+			map.put(n.key, n);
+			n.accessPrevious = accessSentinel.accessPrevious;
+			n.accessNext = accessSentinel;
+			accessSentinel.accessPrevious.accessNext = n;
+			accessSentinel.accessPrevious = n;
+			n.writePrevious = writeSentinel.writePrevious;
+			n.writeNext = writeSentinel;
+			writeSentinel.writePrevious.writeNext = n;
+			writeSentinel.writePrevious = n;
+			weight += n.weight;
+		}
+
+		private void unlink(Node<K, V> n) {
+			n.accessPrevious.accessNext = n.accessNext;
+			n.accessNext.accessPrevious = n.accessPrevious;
+			n.writePrevious.writeNext = n.writeNext;
+			n.writeNext.writePrevious = n.writePrevious;
+			weight -= n.weight;
+		}
+
+		private void evict(Node<K, V> n) {
+			map.remove(n.key);
+			unlink(n);
+			if (listener != null) {
+				if (evicted == null) {
+					evicted = new LinkedList<>();
+				}
+				evicted.add(n);
+			}
+		}
+
+		public List<Node<K, V>> drainEvicted() {
+			List<Node<K, V>> l = evicted;
+			evicted = null;
+			return l;
+		}
+
+		private boolean expired(Node<K, V> n, double now) {
+			return ((expirationAfterAccess > 0d) && ((now - n.accessTimestamp) >= expirationAfterAccess))
+				|| ((expirationAfterWrite > 0d) && ((now - n.writeTimestamp) >= expirationAfterWrite));
+		}
+
+		// Only looks at the heads of the lists
+		public void expire(double now) {
+			if (expirationAfterAccess > 0d) {
+				while ((accessSentinel.accessNext != accessSentinel) && ((now - accessSentinel.accessNext.accessTimestamp) > expirationAfterAccess)) {
+					evict(accessSentinel.accessNext);
+				}
+			}
+			if (expirationAfterWrite > 0d) {
+				while ((writeSentinel.writeNext != writeSentinel) && ((now - writeSentinel.writeNext.writeTimestamp) > expirationAfterWrite)) {
+					evict(writeSentinel.writeNext);
+				}
+			}
+		}
+
+		public void put(K key, V value, int w) {
+			double now = DateUtils.now();
+
+			Node<K, V> old = map.remove(key);
+			if (old != null) {
+				unlink(old);
+			}
+
+			Node<K, V> n = new Node<>(key, value, w);
+			n.writeTimestamp = now;
+			n.accessTimestamp = now;
+			n.accessNanos = System.nanoTime();
+			add(n);
+
+			expire(now);
+			if (limit > 0L) {
+				while ((weight > limit) && (accessSentinel.accessNext != accessSentinel)) {
+					evict(accessSentinel.accessNext);
+				}
+			}
+		}
+
+		public V get(K key) {
+			double now = DateUtils.now();
+
+			Node<K, V> n = map.get(key);
+			if ((n != null) && expired(n, now)) {
+				evict(n);
+				n = null;
+			}
+			if (n != null) {
+				n.accessTimestamp = now;
+				n.accessNanos = System.nanoTime();
+				accessed(n);
+			}
+			expire(now);
+			return (n == null) ? null : n.v;
+		}
+
+		public void remove(K key) {
+			Node<K, V> n = map.remove(key);
+			if (n != null) {
+				unlink(n);
+			}
+		}
+
+		public void clear() {
+			map.clear();
+			accessSentinel.accessPrevious = accessSentinel;
+			accessSentinel.accessNext = accessSentinel;
+			writeSentinel.writePrevious = writeSentinel;
+			writeSentinel.writeNext = writeSentinel;
+			weight = 0L;
 		}
 	}
 
 	private final double expirationAfterAccess;
 	private final double expirationAfterWrite;
-	private final int limit;
-	private final double checkTime;
-	private double lastCheck = 0d;
-	private final Map<K, Element<V>> map = new LinkedHashMap<>();
-	
-	private MemoryCache(double expirationAfterAccess, double expirationAfterWrite, int limit, double checkTime) {
+	private final Weigher<? super K, ? super V> weigher;
+	private final Listener<? super K, ? super V> listener;
+	private final List<Segment> segments;
+	private final int mask;
+
+	private MemoryCache(double expirationAfterAccess, double expirationAfterWrite, int limit, Weigher<? super K, ? super V> weigher, Listener<? super K, ? super V> listener, int concurrency) {
 		this.expirationAfterAccess = expirationAfterAccess;
 		this.expirationAfterWrite = expirationAfterWrite;
-		this.limit = limit;
-		this.checkTime = checkTime;
+		this.weigher = weigher;
+		this.listener = listener;
+
+		// Small limits are not split, so that eviction stays close to a global LRU, nor weighed ones, so that an entry up to the limit is kept
+		int n = 1;
+		while (((n * 2) <= concurrency) && ((limit <= 0) || ((weigher == null) && ((limit / (n * 2)) >= MIN_SEGMENT_LIMIT)))) {
+			n *= 2;
+		}
+		mask = n - 1;
+		segments = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			segments.add(new Segment((limit <= 0) ? 0L : ((limit / n) + ((i < (limit % n)) ? 1 : 0))));
+		}
+	}
+
+	private Segment segment(Object key) {
+		int h = (key == null) ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return segments.get(h & mask);
+	}
+
+	private void notify(List<Node<K, V>> evicted) {
+		if (evicted == null) {
+			return;
+		}
+		for (Node<K, V> n : evicted) {
+			try {
+				listener.evicted(n.key, n.v);
+			} catch (Throwable t) {
+				LOGGER.error("Error in eviction listener", t);
+			}
+		}
 	}
-	
+
 	@Override
 	public String toString() {
 		StringBuilder b = new StringBuilder().append('{');
 		boolean first = true;
-		for (Map.Entry<K, Element<V>> e : map.entrySet()) {
+		for (Snapshot<K, V> n : snapshot()) {
 			if (!first) {
 				b.append(',');
 			} else {
 				first = false;
 			}
-			b.append(e.getKey()).append('=').append(e.getValue().v);
+			b.append(n.key).append('=').append(n.v);
 		}
 		b.append('}');
 		return b.toString();
 	}
-	
+
 	public void put(K key, V value) {
-		try {
-			double now = DateUtils.now();
-	
-			Element<V> e = new Element<>(value);
-			e.writeTimestamp = now;
-			e.accessTimestamp = now;
-			
-			map.remove(key);
-			map.put(key, e);
-
-			if (limit > 0) {
-				if (map.size() > limit) {
-					Iterator<Map.Entry<K, Element<V>>> i = map.entrySet().iterator();
-					i.next();
-					i.remove();
-				}
-			}
-		} finally {
-			check();
+		int w = (weigher == null) ? 1 : weigher.weigh(key, value);
+		Segment s = segment(key);
+		List<Node<K, V>> evicted;
+		synchronized (s) {
+			s.put(key, value, w);
+			evicted = s.drainEvicted();
 		}
+		notify(evicted);
 	}
-	
+
 	public V get(K key) {
-		try {
-			Element<V> e = map.remove(key);
-			if (e == null) {
-				return null;
-			}
-	
-			double now = DateUtils.now();
-			
-			if (expirationAfterAccess > 0d) {
-				if ((now - e.accessTimestamp) >= expirationAfterAccess) {
-					map.remove(key);
-					return null;
-				}
-			}
-			if (expirationAfterWrite > 0d) {
-				if ((now - e.writeTimestamp) >= expirationAfterWrite) {
-					map.remove(key);
-					return null;
-				}
-			}
-			
-			e.accessTimestamp = now;
-			map.put(key, e);
-	
-			return e.v;
-		} finally {
-			check();
+		Segment s = segment(key);
+		V v;
+		List<Node<K, V>> evicted;
+		synchronized (s) {
+			v = s.get(key);
+			evicted = s.drainEvicted();
 		}
+		notify(evicted);
+		return v;
 	}
 
 	public void remove(K key) {
-		try {
-			map.remove(key);
-		} finally {
-			check();
+		Segment s = segment(key);
+		synchronized (s) {
+			s.remove(key);
 		}
 	}
 
 	public void clear() {
-		try {
-			map.clear();
-		} finally {
-			check();
+		for (Segment s : segments) {
+			synchronized (s) {
+				s.clear();
+			}
 		}
 	}
-	
-	private void check() {
-		double now = DateUtils.now();
 
-		if ((now - lastCheck) < checkTime) {
-			return;
-		}
-		
-		lastCheck = now;
-		
-		if (expirationAfterAccess > 0d) {
-			Iterator<Element<V>> i = map.values().iterator();
-			while (i.hasNext()) {
-				if ((now - i.next().accessTimestamp) > expirationAfterAccess) {
-					i.remove();
-				}
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				size += s.map.size();
 			}
 		}
-		if (expirationAfterWrite > 0d) {
-			Iterator<Element<V>> i = map.values().iterator();
-			while (i.hasNext()) {
-				if ((now - i.next().writeTimestamp) > expirationAfterWrite) {
-					i.remove();
+		return size;
+	}
+
+	private List<Snapshot<K, V>> snapshot() {
+		List<Snapshot<K, V>> nodes = new ArrayList<>();
+		for (Segment s : segments) {
+			List<Node<K, V>> evicted;
+			synchronized (s) {
+				s.expire(DateUtils.now());
+				evicted = s.drainEvicted();
+				// In access order, kept by the stable sort in case of equal timestamps
+				for (Node<K, V> n = s.accessSentinel.accessNext; n != s.accessSentinel; n = n.accessNext) {
+					nodes.add(new Snapshot<>(n));
 				}
 			}
+			notify(evicted);
 		}
+		Collections.sort(nodes, ORDER_COMPARATOR);
+		return nodes;
 	}
-	
-	public Iterable<K> keys() {
-		check();
 
-		return map.keySet();
+	public Iterable<K> keys() {
+		List<K> keys = new ArrayList<>();
+		for (Snapshot<K, V> n : snapshot()) {
+			keys.add(n.key);
+		}
+		return keys;
 	}
 
 	public Iterable<V> values() {
-		check();
-		
-		return Iterables.transform(map.values(), new Function<Element<V>, V>() {
-			@Override
-			public V apply(Element<V> e) {
-				return e.v;
-			}
-		});
-	}
-	
-	private static final class InnerMapEntry<K, V> implements Map.Entry<K, V> {
-		private final Map.Entry<K, Element<V>> e;
-		public InnerMapEntry(Map.Entry<K, Element<V>> e) {
-			this.e = e;
-		}
-		public K getKey() {
-			return e.getKey();
-		}
-		public V getValue() {
-			return e.getValue().v;
-		}
-		public int hashCode() {
-			return Objects.hash(e.getKey(), e.getValue().v);
-		}
-		public boolean equals(Object o) {
-			if (o == this) {
-				return true;
-			}
-			if (!(o instanceof InnerMapEntry<?, ?>)) {
-				return false;
-			}
-			@SuppressWarnings("unchecked")
-			InnerMapEntry<K, V> a = (InnerMapEntry<K, V>) o;
-			return Objects.equals(e.getKey(), a.e.getKey()) && Objects.equals(e.getValue(), a.e.getValue());
-		}
-		public V setValue(V value) {
-			throw new UnsupportedOperationException();
+		List<V> values = new ArrayList<>();
+		for (Snapshot<K, V> n : snapshot()) {
+			values.add(n.v);
 		}
+		return values;
 	}
 
 	public Iterable<Map.Entry<K, V>> entries() {
-		check();
-		
-		return Iterables.transform(map.entrySet(), new Function<Map.Entry<K, Element<V>>, Map.Entry<K, V>>() {
-			@Override
-			public Map.Entry<K, V> apply(Map.Entry<K, Element<V>> e) {
-				return new InnerMapEntry<K, V>(e);
-			}
-		});
+		List<Map.Entry<K, V>> entries = new ArrayList<>();
+		for (Snapshot<K, V> n : snapshot()) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(n.key, n.v));
+		}
+		return entries;
 	}
 }
@@ -0,0 +1,80 @@
+package com.davfx.ninio.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multiple producers single consumer queue (sequenced ring buffer).
+ * <p>
+ * {@link #offer(Object)} can be called from any thread and never blocks, {@link #poll()} and {@link #isEmpty()} must only be called from the consumer thread.
+ * Elements are published with a volatile write: a consumer clearing a volatile flag before {@link #isEmpty()}, and producers reading it
+ * after {@link #offer(Object)}, cannot both miss each other (as needed to wake a sleeping consumer up).
+ */
+public final class MpscArrayQueue<E> {
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong(0L);
+	private long head = 0L; // Consumer only
+
+	/**
+	 * @param capacity Rounded up to a power of two
+	 */
+	public MpscArrayQueue(int capacity) {
+		int c = 1;
+		while (c < capacity) {
+			c *= 2;
+		}
+		mask = c - 1;
+		elements = new AtomicReferenceArray<>(c);
+		sequences = new AtomicLongArray(c);
+		for (int i = 0; i < c; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns false if the queue is full.
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		while (true) {
+			long t = tail.get();
+			int i = (int) (t & mask);
+			long s = sequences.get(i);
+			if (s == t) {
+				if (tail.compareAndSet(t, t + 1L)) {
+					elements.lazySet(i, e);
+					// Publishes the element, not lazily: it must be ordered before the volatile reads following the offer
+					sequences.set(i, t + 1L);
+					return true;
+				}
+			} else if (s < t) {
+				return false;
+			}
+		}
+	}
+
+	public E poll() {
+		int i = (int) (head & mask);
+		if (sequences.get(i) != (head + 1L)) {
+			return null;
+		}
+		E e = elements.get(i);
+		elements.lazySet(i, null);
+		sequences.lazySet(i, head + mask + 1L); // Frees the slot for the next round
+		head++;
+		return e;
+	}
+
+	public boolean isEmpty() {
+		return sequences.get((int) (head & mask)) != (head + 1L);
+	}
+}
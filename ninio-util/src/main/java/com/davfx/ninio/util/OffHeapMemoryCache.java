@@ -0,0 +1,337 @@
+package com.davfx.ninio.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+/**
+ * Cache of byte buffers whose contents are kept out of the heap, in direct memory slabs of at most {@code cache.offheap.slab} bytes.
+ * Only the keys and small index entries are on the heap.
+ * <p>
+ * Values are appended to the current slab. Removed and replaced values leave holes, which are reclaimed by copying the live values
+ * of the slab with the fewest of them into a spare slab. When no slab can be reclaimed, the least recently accessed entries are evicted,
+ * so that the {@link Builder#capacity(long) capacity} (in bytes, spare slab included) is never exceeded.
+ * Values larger than a slab are not cached.
+ * <p>
+ * {@link #get(Object)} returns a heap copy of the value. All methods are synchronized.
+ */
+public final class OffHeapMemoryCache<K> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapMemoryCache.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new com.davfx.ninio.util.dependencies.Dependencies()).getConfig(OffHeapMemoryCache.class.getPackage().getName());
+	private static final int SLAB_SIZE = CONFIG.getBytes("cache.offheap.slab").intValue();
+	private static final long DEFAULT_CAPACITY = CONFIG.getBytes("cache.offheap.capacity").longValue();
+
+	public static interface Builder<K> {
+		Builder<K> expireAfterAccess(double expiration);
+		Builder<K> expireAfterWrite(double expiration);
+		Builder<K> capacity(long capacity);
+		OffHeapMemoryCache<K> build();
+	}
+
+	public static <K> Builder<K> builder() {
+		return new Builder<K>() {
+			private double expirationAfterAccess = 0d;
+			private double expirationAfterWrite = 0d;
+			private long capacity = DEFAULT_CAPACITY;
+
+			@Override
+			public Builder<K> expireAfterAccess(double expiration) {
+				expirationAfterAccess = expiration;
+				return this;
+			}
+			@Override
+			public Builder<K> expireAfterWrite(double expiration) {
+				expirationAfterWrite = expiration;
+				return this;
+			}
+			@Override
+			public Builder<K> capacity(long capacity) {
+				this.capacity = capacity;
+				return this;
+			}
+
+			@Override
+			public OffHeapMemoryCache<K> build() {
+				return new OffHeapMemoryCache<>(expirationAfterAccess, expirationAfterWrite, capacity);
+			}
+		};
+	}
+
+	private static final class Entry<K> {
+		public final K key;
+		public final int length;
+		public int slab;
+		public int offset;
+		public double writeTimestamp;
+		public double accessTimestamp;
+
+		// Circular list of the entries of a slab, with a sentinel
+		public Entry<K> previous = this;
+		public Entry<K> next = this;
+
+		public Entry(K key, int length) {
+			this.key = key;
+			this.length = length;
+		}
+	}
+
+	private static final class Slab<K> {
+		private final int size;
+		private ByteBuffer buffer = null; // Allocated on first use
+		public int top = 0;
+		public int live = 0;
+		public final Entry<K> entries = new Entry<>(null, 0);
+
+		public Slab(int size) {
+			this.size = size;
+		}
+
+		public ByteBuffer buffer() {
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(size);
+			}
+			return buffer;
+		}
+
+		public void link(Entry<K> e) {
+			e.previous = entries.previous;
+			e.next = entries;
+			entries.previous.next = e;
+			entries.previous = e;
+			live += e.length;
+		}
+
+		public void unlink(Entry<K> e) {
+			e.previous.next = e.next;
+			e.next.previous = e.previous;
+			e.previous = e;
+			e.next = e;
+			live -= e.length;
+		}
+
+		public void reset() {
+			top = 0;
+			live = 0;
+			entries.previous = entries;
+			entries.next = entries;
+		}
+	}
+
+	private final double expirationAfterAccess;
+	private final double expirationAfterWrite;
+	private final int slabSize;
+	private final List<Slab<K>> slabs;
+	private final Map<K, Entry<K>> map = new LinkedHashMap<>(16, 0.75f, true); // Least recently accessed first
+	private int current = 0;
+	private int spare = 1;
+	private long bytes = 0L;
+	private long compactions = 0L;
+	private long evictions = 0L;
+
+	private OffHeapMemoryCache(double expirationAfterAccess, double expirationAfterWrite, long capacity) {
+		this.expirationAfterAccess = expirationAfterAccess;
+		this.expirationAfterWrite = expirationAfterWrite;
+
+		slabSize = (int) Math.max(1L, Math.min(SLAB_SIZE, capacity / 2L));
+		int n = (int) Math.max(2L, capacity / slabSize);
+		slabs = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			slabs.add(new Slab<K>(slabSize));
+		}
+	}
+
+	private boolean expired(Entry<K> e, double now) {
+		return ((expirationAfterAccess > 0d) && ((now - e.accessTimestamp) >= expirationAfterAccess))
+			|| ((expirationAfterWrite > 0d) && ((now - e.writeTimestamp) >= expirationAfterWrite));
+	}
+
+	private void unlink(Entry<K> e) {
+		slabs.get(e.slab).unlink(e);
+		bytes -= e.length;
+	}
+
+	// Only looks at the least recently accessed entries
+	private void expire(double now) {
+		Iterator<Entry<K>> i = map.values().iterator();
+		while (i.hasNext()) {
+			Entry<K> e = i.next();
+			if (!expired(e, now)) {
+				break;
+			}
+			i.remove();
+			unlink(e);
+		}
+	}
+
+	private void compact(int index) {
+		int target = spare;
+		Slab<K> from = slabs.get(index);
+		Slab<K> to = slabs.get(target);
+		ByteBuffer src = from.buffer();
+		ByteBuffer dst = to.buffer();
+		to.reset();
+		dst.clear();
+
+		Entry<K> e = from.entries.next;
+		while (e != from.entries) {
+			Entry<K> next = e.next;
+			src.clear();
+			src.position(e.offset).limit(e.offset + e.length);
+			e.offset = dst.position();
+			e.slab = target;
+			dst.put(src);
+			to.link(e);
+			e = next;
+		}
+		to.top = dst.position();
+
+		from.reset();
+		spare = index;
+		current = target;
+		compactions++;
+		LOGGER.trace("Slab compacted, {} bytes kept", to.top);
+	}
+
+	// Makes room for the given length in the current slab
+	private boolean reserve(int length) {
+		if (length > slabSize) {
+			return false;
+		}
+		while (true) {
+			if ((slabSize - slabs.get(current).top) >= length) {
+				return true;
+			}
+
+			int best = -1;
+			for (int i = 0; i < slabs.size(); i++) {
+				if (i == spare) {
+					continue;
+				}
+				if ((best < 0) || (slabs.get(i).live < slabs.get(best).live)) {
+					best = i;
+				}
+			}
+			Slab<K> b = slabs.get(best);
+			if ((slabSize - b.live) >= length) {
+				if (b.live == 0) {
+					b.reset();
+					current = best;
+				} else {
+					compact(best);
+				}
+				continue;
+			}
+
+			Iterator<Entry<K>> i = map.values().iterator();
+			if (!i.hasNext()) {
+				return false;
+			}
+			Entry<K> eldest = i.next();
+			i.remove();
+			unlink(eldest);
+			evictions++;
+		}
+	}
+
+	public synchronized void put(K key, ByteBuffer value) {
+		double now = DateUtils.now();
+
+		Entry<K> old = map.remove(key);
+		if (old != null) {
+			unlink(old);
+		}
+		expire(now);
+
+		int length = value.remaining();
+		if (!reserve(length)) {
+			LOGGER.trace("Value too large to be cached: {} bytes", length);
+			return;
+		}
+
+		Slab<K> s = slabs.get(current);
+		ByteBuffer dst = s.buffer();
+		dst.clear();
+		dst.position(s.top);
+		dst.put(value.duplicate());
+
+		Entry<K> e = new Entry<>(key, length);
+		e.slab = current;
+		e.offset = s.top;
+		e.writeTimestamp = now;
+		e.accessTimestamp = now;
+		s.top += length;
+		s.link(e);
+		bytes += length;
+		map.put(key, e);
+	}
+
+	public synchronized ByteBuffer get(K key) {
+		Entry<K> e = map.get(key);
+		if (e == null) {
+			return null;
+		}
+
+		double now = DateUtils.now();
+		if (expired(e, now)) {
+			map.remove(key);
+			unlink(e);
+			return null;
+		}
+		e.accessTimestamp = now;
+
+		ByteBuffer src = slabs.get(e.slab).buffer();
+		src.clear();
+		src.position(e.offset).limit(e.offset + e.length);
+		ByteBuffer b = ByteBuffer.allocate(e.length);
+		b.put(src);
+		b.flip();
+		return b;
+	}
+
+	public synchronized void remove(K key) {
+		Entry<K> e = map.remove(key);
+		if (e != null) {
+			unlink(e);
+		}
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		for (Slab<K> s : slabs) {
+			s.reset();
+		}
+		bytes = 0L;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Bytes of the cached values, not counting the holes left in the slabs.
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized long compactions() {
+		return compactions;
+	}
+
+	/**
+	 * Entries removed to make room for new values.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+}
@@ -1,94 +1,67 @@
 package com.davfx.ninio.util;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.typesafe.config.Config;
-
+/**
+ * Runs the given runnables one at a time, in order, on the {@link Housekeeping} workers.
+ * <p>
+ * Runnables are queued without locking. Only one worker at a time runs the runnables of an executor, until there are none left;
+ * it is named after the executor meanwhile. Workers are created when all are busy, so a blocked executor never delays the others.
+ */
 public final class SerialExecutor implements Executor {
-	
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(SerialExecutor.class);
-	
-	private static final Config CONFIG = ConfigUtils.load(new com.davfx.ninio.util.dependencies.Dependencies()).getConfig(SerialExecutor.class.getPackage().getName());
-	private static final double TIMEOUT_TO_SHUTDOWN_INTERNAL_THREAD = ConfigUtils.getDuration(CONFIG, "executor.serial.autoshutdown");
-	
-	private final Class<?> clazz;
-	private Thread thread = null;
-	
-	private Runnable last = null;
-	private List<Runnable> toExecute = null;
-	
+
+	private static final AtomicInteger NUMBER = new AtomicInteger(0);
+
+	private final String name;
+	private final Queue<Runnable> toExecute = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
 	public SerialExecutor(Class<?> clazz) {
-		this.clazz = clazz;
+		name = clazz.getSimpleName() + "-" + NUMBER.getAndIncrement();
 	}
-	
+
 	@Override
 	public void execute(Runnable runnable) {
-		synchronized (this) {
-			if (thread == null) {
-				thread = new ClassThreadFactory(clazz, true).newThread(new Runnable() {
-					@Override
-					public void run() {
-						while (true) {
-							Runnable lastRunnable;
-							List<Runnable> listToExecute;
-							synchronized (SerialExecutor.this) {
-								if (last == null) {
-									try {
-										SerialExecutor.this.wait((long) (TIMEOUT_TO_SHUTDOWN_INTERNAL_THREAD * 1000d));
-									} catch (InterruptedException ie) {
-									}
-								}
-								
-								if (last == null) {
-									thread = null;//TODO check rerun
-									break;
-								}
-								
-								lastRunnable = last;
-								last = null;
-								if (toExecute == null) {
-									listToExecute = null;
-								} else {
-									listToExecute = toExecute;
-									toExecute = null;
-								}
-							}
-							
-							try {
-								lastRunnable.run();
-							} catch (Throwable t) {
-								LOGGER.error("Error in threaded task", t);
-							}
-							if (listToExecute != null) {
-								for (Runnable r : listToExecute) {
-									try {
-										r.run();
-									} catch (Throwable t) {
-										LOGGER.error("Error in threaded task", t);
-									}
-								}
-							}
-						}
-					}
-				});
-				thread.start();
-			}
-			
-			if (last == null) {
-				last = runnable;
-			} else {
-				if (toExecute == null) {
-					toExecute = new LinkedList<>();
+		toExecute.add(runnable);
+		if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+			Housekeeping.execute(name, drain);
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			while (true) {
+				Runnable r = toExecute.poll();
+				if (r == null) {
+					break;
 				}
-				toExecute.add(runnable);
+				try {
+					r.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in threaded task", t);
+				}
+			}
+
+			scheduled.set(false);
+			// A runnable added before the flag was cleared would not have been scheduled
+			if (toExecute.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				break;
 			}
-			
-			notifyAll();
 		}
 	}
 }
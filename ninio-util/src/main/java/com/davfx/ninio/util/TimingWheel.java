@@ -0,0 +1,211 @@
+package com.davfx.ninio.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical hashed timing wheel, counting time in abstract ticks.
+ * <p>
+ * Scheduling and cancelling are O(1). Advancing costs one slot visit per tick, plus the cascading of the upper levels every {@code size} ticks.
+ * <p>
+ * Not thread-safe: meant to be owned by a single thread that calls {@link #advance(long)} regularly.
+ */
+public final class TimingWheel {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+
+	public static final class Entry {
+		private final Runnable task;
+		private long deadline;
+		private Entry previous = null;
+		private Entry next = null;
+		private Entry[] slots = null; // null when not scheduled
+		private int slot;
+
+		private Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public long deadline() {
+			return deadline;
+		}
+
+		public boolean isScheduled() {
+			return slots != null;
+		}
+	}
+
+	private final int bits;
+	private final int mask;
+	private final Entry[][] levels;
+	private long tick;
+	private int count = 0;
+
+	/**
+	 * @param size Slots per level, rounded up to a power of two
+	 * @param levels Number of levels, the wheel spans size^levels ticks (longer deadlines are cascaded down from the top level several times)
+	 * @param tick Initial tick
+	 */
+	public TimingWheel(int size, int levels, long tick) {
+		int b = 0;
+		while ((1 << b) < size) {
+			b++;
+		}
+		bits = b;
+		mask = (1 << b) - 1;
+		this.levels = new Entry[levels][1 << b];
+		this.tick = tick;
+	}
+
+	public long tick() {
+		return tick;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * The task is run by {@link #advance(long)} once the given tick is reached. A deadline in the past is run on the next tick.
+	 */
+	public Entry schedule(long deadline, Runnable task) {
+		Entry entry = new Entry(task, Math.max(deadline, tick + 1L));
+		insert(entry);
+		count++;
+		return entry;
+	}
+
+	/**
+	 * Returns false if the entry has already been run or cancelled.
+	 */
+	public boolean cancel(Entry entry) {
+		if (entry.slots == null) {
+			return false;
+		}
+		unlink(entry);
+		count--;
+		return true;
+	}
+
+	/**
+	 * The earliest tick at which {@link #advance(long)} may run a task, {@link Long#MAX_VALUE} if empty. The far deadlines are not looked up:
+	 * the next tick cascading the upper levels is returned instead. Costs one slot visit per tick until then.
+	 */
+	public long nextDeadline() {
+		if (count == 0) {
+			return Long.MAX_VALUE;
+		}
+		Entry[] slots = levels[0];
+		long t = tick;
+		while (true) {
+			t++;
+			if ((slots[(int) (t & mask)] != null) || ((t & mask) == 0L)) {
+				return t;
+			}
+		}
+	}
+
+	/**
+	 * Runs, in deadline order (tick by tick), all the tasks up to the given tick included.
+	 */
+	public void advance(long to) {
+		while (tick < to) {
+			if (count == 0) {
+				tick = to;
+				return;
+			}
+
+			tick++;
+
+			// Cascade the upper levels down before running the current slot, higher levels first
+			int level = 0;
+			while ((level < (levels.length - 1)) && (((tick >>> (bits * level)) & mask) == 0L)) {
+				level++;
+			}
+			for (int i = level; i > 0; i--) {
+				cascade(i, (int) ((tick >>> (bits * i)) & mask));
+			}
+
+			Entry[] slots = levels[0];
+			int s = (int) (tick & mask);
+			while (slots[s] != null) {
+				Entry entry = slots[s];
+				unlink(entry);
+				if (entry.deadline > tick) {
+					// Only possible with a single level, when the deadline is beyond the wheel span
+					insert(entry);
+					continue;
+				}
+				count--;
+				try {
+					entry.task.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error in timed task", t);
+				}
+			}
+		}
+	}
+
+	private void cascade(int level, int s) {
+		Entry[] slots = levels[level];
+		Entry entry = slots[s];
+		slots[s] = null;
+		while (entry != null) {
+			Entry next = entry.next;
+			entry.previous = null;
+			entry.next = null;
+			entry.slots = null;
+			insert(entry);
+			entry = next;
+		}
+	}
+
+	private void insert(Entry entry) {
+		long delta = entry.deadline - tick;
+		int level = 0;
+		long d = entry.deadline;
+		while (true) {
+			if (level == (levels.length - 1)) {
+				long max = (1L << (bits * (level + 1))) - 1L;
+				if (delta > max) {
+					// Beyond the wheel span, parked in the farthest slot and cascaded again from there
+					d = tick + max;
+				}
+				break;
+			}
+			if (delta < (1L << (bits * (level + 1)))) {
+				break;
+			}
+			level++;
+		}
+
+		Entry[] slots = levels[level];
+		int s = (int) ((d >>> (bits * level)) & mask);
+		entry.slots = slots;
+		entry.slot = s;
+		entry.previous = null;
+		entry.next = slots[s];
+		if (entry.next != null) {
+			entry.next.previous = entry;
+		}
+		slots[s] = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		if (entry.previous == null) {
+			entry.slots[entry.slot] = entry.next;
+		} else {
+			entry.previous.next = entry.next;
+		}
+		if (entry.next != null) {
+			entry.next.previous = entry.previous;
+		}
+		entry.previous = null;
+		entry.next = null;
+		entry.slots = null;
+	}
+}
@@ -0,0 +1,74 @@
+package com.davfx.ninio.util;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MappedLogCacheTest {
+	private static ByteBuffer value(int i, int length) {
+		byte[] b = new byte[length];
+		for (int k = 0; k < length; k++) {
+			b[k] = (byte) (i + k);
+		}
+		return ByteBuffer.wrap(b);
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		File file = File.createTempFile(MappedLogCacheTest.class.getName(), null);
+		file.deleteOnExit();
+		file.delete();
+
+		MappedLogCache cache = MappedLogCache.builder().capacity(64 * 1024).build(file);
+		cache.put("a", value(1, 10));
+		cache.put("b", value(2, 20));
+		cache.put("a", value(3, 30));
+		cache.put("c", value(4, 40));
+		cache.remove("c");
+		Assertions.assertThat(cache.get("a")).isEqualTo(value(3, 30));
+		cache.close();
+
+		cache = MappedLogCache.builder().capacity(64 * 1024).build(file);
+		Assertions.assertThat(cache.size()).isEqualTo(2);
+		Assertions.assertThat(cache.get("a")).isEqualTo(value(3, 30));
+		Assertions.assertThat(cache.get("b")).isEqualTo(value(2, 20));
+		Assertions.assertThat(cache.get("c")).isNull();
+		cache.close();
+
+		file.delete();
+	}
+
+	@Test
+	public void testCompactionAndEviction() throws Exception {
+		File file = File.createTempFile(MappedLogCacheTest.class.getName(), null);
+		file.deleteOnExit();
+		file.delete();
+
+		MappedLogCache cache = MappedLogCache.builder().capacity(4 * 1024).build(file); // 32 records of 120 bytes
+		for (int i = 0; i < 100; i++) {
+			cache.put("k" + (i % 10), value(i, 100));
+		}
+		Assertions.assertThat(cache.compactions()).isGreaterThan(0L);
+		Assertions.assertThat(cache.evictions()).isEqualTo(0L);
+		for (int i = 90; i < 100; i++) {
+			Assertions.assertThat(cache.get("k" + (i % 10))).isEqualTo(value(i, 100));
+		}
+
+		for (int i = 0; i < 40; i++) {
+			cache.put("n" + i, value(i, 100));
+		}
+		Assertions.assertThat(cache.evictions()).isGreaterThan(0L);
+		Assertions.assertThat(cache.get("k0")).isNull();
+		Assertions.assertThat(cache.get("n39")).isEqualTo(value(39, 100));
+		cache.close();
+
+		cache = MappedLogCache.builder().capacity(4 * 1024).build(file);
+		Assertions.assertThat(cache.get("k0")).isNull();
+		Assertions.assertThat(cache.get("n39")).isEqualTo(value(39, 100));
+		cache.close();
+
+		file.delete();
+	}
+}
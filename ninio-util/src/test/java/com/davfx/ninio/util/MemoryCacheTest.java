@@ -1,5 +1,8 @@
 package com.davfx.ninio.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
@@ -39,4 +42,66 @@ public class MemoryCacheTest {
 		cache.get("b");
 		Assertions.assertThat(cache.keys().toString()).isEqualTo("[a, b]");
 	}
+
+	@Test
+	public void testWeightLimitAndListener() throws Exception {
+		final List<String> evicted = new ArrayList<>();
+		MemoryCache<String, String> cache = MemoryCache.<String, String> builder().limitedTo(5).with(new MemoryCache.Weigher<String, String>() {
+			@Override
+			public int weigh(String key, String value) {
+				return value.length();
+			}
+		}).with(new MemoryCache.Listener<String, String>() {
+			@Override
+			public void evicted(String key, String value) {
+				evicted.add(key);
+			}
+		}).build();
+		cache.put("a", "aa");
+		cache.put("b", "bb");
+		cache.get("a");
+		cache.put("c", "cc");
+		Assertions.assertThat(cache.keys().toString()).isEqualTo("[a, c]");
+		Assertions.assertThat(evicted).containsExactly("b");
+		cache.remove("a");
+		Assertions.assertThat(evicted).containsExactly("b");
+	}
+
+	@Test
+	public void testEntryHeavierThanSegmentShare() throws Exception {
+		MemoryCache<String, Integer> cache = MemoryCache.<String, Integer> builder().limitedTo(100).concurrency(16).with(new MemoryCache.Weigher<String, Integer>() {
+			@Override
+			public int weigh(String key, Integer value) {
+				return value;
+			}
+		}).build();
+		cache.put("a", 80);
+		Assertions.assertThat(cache.get("a")).isEqualTo(80);
+		cache.put("b", 30);
+		Assertions.assertThat(cache.get("a")).isNull();
+		Assertions.assertThat(cache.get("b")).isEqualTo(30);
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final MemoryCache<Integer, Integer> cache = MemoryCache.<Integer, Integer> builder().limitedTo(1000).build();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int offset = i * 10000;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						cache.put(offset + j, j);
+						cache.get(offset + (j / 2));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assertions.assertThat(cache.size()).isEqualTo(1000);
+	}
 }
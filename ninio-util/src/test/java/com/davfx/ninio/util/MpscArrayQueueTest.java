@@ -0,0 +1,67 @@
+package com.davfx.ninio.util;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MpscArrayQueueTest {
+	@Test
+	public void testBounded() throws Exception {
+		MpscArrayQueue<String> queue = new MpscArrayQueue<>(3);
+		Assertions.assertThat(queue.capacity()).isEqualTo(4);
+		Assertions.assertThat(queue.isEmpty()).isTrue();
+		for (int i = 0; i < 4; i++) {
+			Assertions.assertThat(queue.offer("" + i)).isTrue();
+		}
+		Assertions.assertThat(queue.offer("4")).isFalse();
+		Assertions.assertThat(queue.poll()).isEqualTo("0");
+		Assertions.assertThat(queue.offer("4")).isTrue();
+		for (int i = 1; i < 5; i++) {
+			Assertions.assertThat(queue.poll()).isEqualTo("" + i);
+		}
+		Assertions.assertThat(queue.poll()).isNull();
+		Assertions.assertThat(queue.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testProducers() throws Exception {
+		final MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(16);
+		final int producers = 4;
+		final int count = 10000;
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int base = p * count;
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < count; i++) {
+						while (!queue.offer(base + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		int[] last = new int[producers];
+		for (int p = 0; p < producers; p++) {
+			last[p] = -1;
+		}
+		int received = 0;
+		while (received < (producers * count)) {
+			Integer v = queue.poll();
+			if (v == null) {
+				Thread.yield();
+				continue;
+			}
+			int p = v / count;
+			Assertions.assertThat(v % count).isEqualTo(last[p] + 1); // FIFO per producer
+			last[p] = v % count;
+			received++;
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assertions.assertThat(queue.isEmpty()).isTrue();
+	}
+}
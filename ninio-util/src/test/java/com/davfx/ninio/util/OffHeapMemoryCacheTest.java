@@ -0,0 +1,68 @@
+package com.davfx.ninio.util;
+
+import java.nio.ByteBuffer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class OffHeapMemoryCacheTest {
+	private static ByteBuffer value(int i, int length) {
+		byte[] b = new byte[length];
+		for (int k = 0; k < length; k++) {
+			b[k] = (byte) (i + k);
+		}
+		return ByteBuffer.wrap(b);
+	}
+
+	@Test
+	public void testPutGet() throws Exception {
+		OffHeapMemoryCache<String> cache = OffHeapMemoryCache.<String> builder().capacity(1024).build();
+		cache.put("a", ByteBuffer.wrap("aa".getBytes(Charsets.UTF_8)));
+		cache.put("b", ByteBuffer.wrap("bbb".getBytes(Charsets.UTF_8)));
+		cache.put("a", ByteBuffer.wrap("aaaa".getBytes(Charsets.UTF_8)));
+		Assertions.assertThat(new String(cache.get("a").array(), Charsets.UTF_8)).isEqualTo("aaaa");
+		Assertions.assertThat(new String(cache.get("b").array(), Charsets.UTF_8)).isEqualTo("bbb");
+		Assertions.assertThat(cache.get("c")).isNull();
+		Assertions.assertThat(cache.bytes()).isEqualTo(7L);
+		cache.remove("a");
+		Assertions.assertThat(cache.get("a")).isNull();
+		Assertions.assertThat(cache.bytes()).isEqualTo(3L);
+	}
+
+	@Test
+	public void testCompactionAndEviction() throws Exception {
+		OffHeapMemoryCache<Integer> cache = OffHeapMemoryCache.<Integer> builder().capacity(4 * 1000).build(); // 2 slabs, one spare
+		for (int i = 0; i < 20; i++) {
+			cache.put(i, value(i, 100));
+		}
+		for (int i = 0; i < 20; i += 2) {
+			cache.remove(i);
+		}
+		for (int i = 20; i < 25; i++) {
+			cache.put(i, value(i, 100));
+		}
+		Assertions.assertThat(cache.compactions()).isEqualTo(1L);
+		Assertions.assertThat(cache.evictions()).isEqualTo(0L);
+		for (int i = 1; i < 25; i++) {
+			if ((i < 20) && ((i % 2) == 0)) {
+				continue;
+			}
+			Assertions.assertThat(cache.get(i)).isEqualTo(value(i, 100));
+		}
+
+		cache.get(1);
+		for (int i = 25; i < 35; i++) {
+			cache.put(i, value(i, 100));
+		}
+		Assertions.assertThat(cache.evictions()).isEqualTo(5L);
+		Assertions.assertThat(cache.bytes()).isEqualTo(2000L);
+		Assertions.assertThat(cache.get(34)).isEqualTo(value(34, 100));
+		Assertions.assertThat(cache.get(1)).isEqualTo(value(1, 100));
+		Assertions.assertThat(cache.get(3)).isNull();
+
+		cache.put(100, value(0, 2001));
+		Assertions.assertThat(cache.get(100)).isNull();
+	}
+}
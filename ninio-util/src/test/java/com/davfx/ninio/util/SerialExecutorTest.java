@@ -0,0 +1,78 @@
+package com.davfx.ninio.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+	@Test
+	public void testOrderAndExclusion() throws Exception {
+		final SerialExecutor executor = new SerialExecutor(SerialExecutorTest.class);
+		final int threads = 4;
+		final int n = 10000;
+		final int[] last = new int[threads];
+		final AtomicBoolean disordered = new AtomicBoolean(false);
+		final AtomicInteger running = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(threads * n);
+
+		for (int t = 0; t < threads; t++) {
+			final int k = t;
+			last[k] = -1;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < n; i++) {
+						final int j = i;
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (running.incrementAndGet() != 1) {
+									disordered.set(true);
+								}
+								if (last[k] != (j - 1)) {
+									disordered.set(true);
+								}
+								last[k] = j;
+								running.decrementAndGet();
+								done.countDown();
+							}
+						});
+					}
+				}
+			}).start();
+		}
+
+		Assertions.assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(disordered.get()).isFalse();
+	}
+
+	@Test
+	public void testBlockedExecutorDoesNotDelayOthers() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		SerialExecutor blocked = new SerialExecutor(SerialExecutorTest.class);
+		blocked.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException ie) {
+				}
+			}
+		});
+
+		final CountDownLatch done = new CountDownLatch(1);
+		new SerialExecutor(SerialExecutorTest.class).execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		Assertions.assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		release.countDown();
+	}
+}
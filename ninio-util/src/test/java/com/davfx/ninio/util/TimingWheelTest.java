@@ -0,0 +1,68 @@
+package com.davfx.ninio.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class TimingWheelTest {
+	private static Runnable add(final List<Long> fired, final TimingWheel wheel) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				fired.add(wheel.tick());
+			}
+		};
+	}
+
+	@Test
+	public void testDeadlines() throws Exception {
+		TimingWheel wheel = new TimingWheel(4, 3, 0L);
+		List<Long> fired = new ArrayList<>();
+		wheel.schedule(3L, add(fired, wheel));
+		wheel.schedule(17L, add(fired, wheel));
+		wheel.schedule(200L, add(fired, wheel)); // Beyond the wheel span (64 ticks)
+		TimingWheel.Entry cancelled = wheel.schedule(10L, add(fired, wheel));
+		Assertions.assertThat(wheel.size()).isEqualTo(4);
+		Assertions.assertThat(wheel.cancel(cancelled)).isTrue();
+		Assertions.assertThat(wheel.cancel(cancelled)).isFalse();
+
+		wheel.advance(16L);
+		Assertions.assertThat(fired).containsExactly(3L);
+		wheel.advance(300L);
+		Assertions.assertThat(fired).containsExactly(3L, 17L, 200L);
+		Assertions.assertThat(wheel.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testNextDeadline() throws Exception {
+		TimingWheel wheel = new TimingWheel(4, 3, 0L);
+		List<Long> fired = new ArrayList<>();
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(Long.MAX_VALUE);
+		wheel.schedule(2L, add(fired, wheel));
+		wheel.schedule(30L, add(fired, wheel));
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(2L);
+		wheel.advance(2L);
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(4L); // Cascading
+		wheel.advance(16L);
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(20L);
+		wheel.advance(28L);
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(30L);
+		wheel.advance(30L);
+		Assertions.assertThat(fired).containsExactly(2L, 30L);
+		Assertions.assertThat(wheel.nextDeadline()).isEqualTo(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testPastDeadline() throws Exception {
+		TimingWheel wheel = new TimingWheel(8, 1, 100L);
+		List<Long> fired = new ArrayList<>();
+		wheel.schedule(50L, add(fired, wheel));
+		wheel.schedule(120L, add(fired, wheel)); // Beyond the span of a single level
+		wheel.advance(101L);
+		Assertions.assertThat(fired).containsExactly(101L);
+		wheel.advance(200L);
+		Assertions.assertThat(fired).containsExactly(101L, 120L);
+	}
+}